@@ -36,15 +36,30 @@ public class PCPromiscuityRunnable implements Runnable {
 	}
 
 	public void run() {
+		String csvName = FilenameUtils.removeExtension(tmpFile.getAbsolutePath()) +".csv";
+		File file = new File(csvName);
 		try {
-			Map<Long, CompoundPromiscuityInfo> map = new PCPromiscuityMain(params).getCompoundPromiscuityInfoMap();
 			PCPromiscuityOutput output = new PCPromiscuityOutput();
-			output.compoundPromiscuityToXML(map, params, tmpFile);
-			String csvName = FilenameUtils.removeExtension(tmpFile.getAbsolutePath()) +".csv";
-			File file = new File(csvName);
-			output.compoundPromiscuityToCSV(map, params, file);
+			if (params.getStreamingChunkSize() > 0) {
+				output.open(params, tmpFile, file);
+				try {
+					new PCPromiscuityMain(params).streamCompoundPromiscuityInfo(output);
+				} finally {
+					output.close();
+				}
+			} else {
+				Map<Long, CompoundPromiscuityInfo> map = new PCPromiscuityMain(params).getCompoundPromiscuityInfoMap();
+				output.compoundPromiscuityToFiles(map, params, tmpFile, file);
+			}
 		} catch (Exception e) {
-			e.printStackTrace();
+			if (params.getProgress().isCancelled()) {
+				// nobody will ask for the partial results
+				tmpFile.delete();
+				file.delete();
+			} else
+				e.printStackTrace();
+			// so the job is marked as failed or cancelled
+			throw new RuntimeException(e);
 		}
 	}
 
@@ -17,10 +17,13 @@ package edu.scripps.fl.pubchem.promiscuity.servlet;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.TreeSet;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -28,19 +31,114 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import edu.scripps.fl.pubchem.promiscuity.AssayProteinCache;
+import edu.scripps.fl.pubchem.promiscuity.ELinkCache;
+import edu.scripps.fl.pubchem.promiscuity.FunctionalGroupCache;
+import edu.scripps.fl.pubchem.promiscuity.FunctionalGroupRegistry;
+import edu.scripps.fl.pubchem.promiscuity.OverallListsAndMapsFactory;
 import edu.scripps.fl.pubchem.promiscuity.model.PCPromiscuityParameters;
 import edu.scripps.fl.pubchem.web.entrez.EUtilsWebSession;
-import edu.scripps.fl.queue.QueueServlet;
+import edu.scripps.fl.queue.Job;
+import edu.scripps.fl.queue.JobRegistry;
 
 public class PubChemPromiscuityServlet extends HttpServlet {
 
+    private Integer esearchChunkSize = OverallListsAndMapsFactory.DEFAULT_ESEARCH_CHUNK_SIZE;
+    private Integer countingThreads = null;
+    private Integer streamingChunkSize = 0;
+
+    private static final long MINUTE = 60 * 1000;
+
     @Override
     public void init(ServletConfig config) throws ServletException {
-        int threads = Integer.parseInt( config.getInitParameter("threads") );
-        QueueServlet.executor = Executors.newFixedThreadPool(threads);
+        if (config.getInitParameter("threads") == null)
+            throw new ServletException("Init parameter threads is required");
+        int threads = getIntParameter(config, "threads", 1, 0);
+        int maxQueuedJobs = getIntParameter(config, "maxQueuedJobs", 1, JobRegistry.DEFAULT_MAX_QUEUED);
+        JobRegistry jobs = new JobRegistry(threads, maxQueuedJobs);
+        // wall clock minutes a job may run before it is cancelled
+        if (config.getInitParameter("jobTimeLimitMinutes") != null)
+            jobs.setTimeLimit(getLongParameter(config, "jobTimeLimitMinutes", 0, 0) * MINUTE);
+        // minutes without the queue page polling before a job is given up on
+        if (config.getInitParameter("jobAbandonedMinutes") != null)
+            jobs.setAbandonedAfter(getLongParameter(config, "jobAbandonedMinutes", 0, 0) * MINUTE);
+        // minutes the results of a job are given to identical requests
+        if (config.getInitParameter("resultCacheMinutes") != null)
+            jobs.setResultTimeToLive(getLongParameter(config, "resultCacheMinutes", 0, 0) * MINUTE);
+        JobRegistry.setInstance(jobs);
+
+        String elinkCacheDir = config.getInitParameter("elinkCacheDir");
+        String elinkCacheHours = config.getInitParameter("elinkCacheHours");
+        if ("none".equals(elinkCacheDir))
+            ELinkCache.setInstance(null);
+        else if (elinkCacheDir != null || elinkCacheHours != null) {
+            ELinkCache defaultCache = ELinkCache.getInstance();
+            File dir = elinkCacheDir != null ? new File(elinkCacheDir) : defaultCache.getDirectory();
+            long ttl = defaultCache.getTimeToLive();
+            if (elinkCacheHours != null)
+                ttl = getLongParameter(config, "elinkCacheHours", 0, 0) * 60 * MINUTE;
+            ELinkCache.setInstance(new ELinkCache(dir, ttl));
+        }
+
+        String functionalGroupCacheDir = config.getInitParameter("functionalGroupCacheDir");
+        if ("none".equals(functionalGroupCacheDir))
+            FunctionalGroupCache.setInstance(null);
+        else if (functionalGroupCacheDir != null)
+            FunctionalGroupCache.setInstance(new FunctionalGroupCache(new File(functionalGroupCacheDir)));
+
+        if (config.getInitParameter("esearchThreads") != null) {
+            try {
+                OverallListsAndMapsFactory.setEsearchThreads(getIntParameter(config, "esearchThreads", 1, 0));
+            } catch (IllegalStateException ex) {
+                throw new ServletException("Unable to set esearchThreads", ex);
+            }
+        }
+        esearchChunkSize = getIntParameter(config, "esearchChunkSize", 1, esearchChunkSize);
+        if (config.getInitParameter("countingThreads") != null)
+            countingThreads = getIntParameter(config, "countingThreads", 1, 0);
+        streamingChunkSize = getIntParameter(config, "streamingChunkSize", 0, streamingChunkSize);
+        if (config.getInitParameter("assayProteinCacheSize") != null)
+            AssayProteinCache.setInstance(new AssayProteinCache(getIntParameter(config, "assayProteinCacheSize", 1, 0)));
+
+        // load and compile the functional groups now rather than in the first job
+        try {
+            FunctionalGroupRegistry.getInstance();
+        } catch (Exception ex) {
+            throw new ServletException("Unable to load the functional groups", ex);
+        }
         super.init(config);
     }
 
+    /**
+     * The init parameter as an int of at least min, or defaultValue if it is
+     * not set.
+     */
+    private static int getIntParameter(ServletConfig config, String name, int min, int defaultValue) throws ServletException {
+        long number = getLongParameter(config, name, min, defaultValue);
+        if (number > Integer.MAX_VALUE)
+            throw new ServletException("Init parameter " + name + " is too large: " + number);
+        return (int) number;
+    }
+
+    /**
+     * The init parameter as a long of at least min, or defaultValue if it is
+     * not set.
+     */
+    private static long getLongParameter(ServletConfig config, String name, long min, long defaultValue) throws ServletException {
+        String value = config.getInitParameter(name);
+        if (value == null)
+            return defaultValue;
+        long number;
+        try {
+            number = Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new ServletException("Init parameter " + name + " is not a number: " + value);
+        }
+        if (number < min)
+            throw new ServletException("Init parameter " + name + " must be at least " + min + ": " + value);
+        return number;
+    }
+
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         String compoundIdString = req.getParameter("ids");
@@ -85,19 +183,68 @@ public class PubChemPromiscuityServlet extends HttpServlet {
         params.setDatabase(db);
         params.setSimpleMode(isSimple);
         params.setPerProteinMode(perProtein);
+        params.setEsearchChunkSize(esearchChunkSize);
+        if (countingThreads != null)
+            params.setCountingThreads(countingThreads);
+        params.setStreamingChunkSize(streamingChunkSize);
 
-        File dir = new File(getServletContext().getRealPath("/output"));
-        dir.mkdirs();
-        File tmpFile = File.createTempFile("pcdata", ".xml", dir);
+        // the same ids, database and search type give the same results, so
+        // share a job that is still running or finished recently
+        String key = getJobKey(db, searchType, compoundIds);
+        // a client that resubmits or cancels twice still counts once
+        String waiter = req.getSession().getId();
+        Job job = JobRegistry.getInstance().attach(key, waiter);
+        if (job == null) {
+            File dir = new File(getServletContext().getRealPath("/output"));
+            dir.mkdirs();
+            File tmpFile = File.createTempFile("pcdata", ".xml", dir);
 
-        PCPromiscuityRunnable runnable = new PCPromiscuityRunnable(params, tmpFile);
-        Future<?> future = QueueServlet.executor.submit(runnable);
-        String uniqueId = "output/" + tmpFile.getName();
-        QueueServlet.queueMap.put(uniqueId, future);
-        
-        String redirectURL = String.format("/pcpromiscuity/%s?id=%s", redirectHtml, uniqueId);
-        QueueServlet.redirectMap.put(uniqueId, redirectURL);
-        resp.sendRedirect(resp.encodeRedirectURL("/pcpromiscuity/queue.html?" + "id=" + uniqueId));
+            PCPromiscuityRunnable runnable = new PCPromiscuityRunnable(params, tmpFile);
+            String uniqueId = "output/" + tmpFile.getName();
+            String redirectURL = String.format("/pcpromiscuity/%s?id=%s", redirectHtml, uniqueId);
+            try {
+                job = JobRegistry.getInstance().submit(uniqueId, key, waiter, redirectURL, runnable, params.getProgress());
+            } catch (RejectedExecutionException ex) {
+                tmpFile.delete();
+                resp.setHeader("Retry-After", "60");
+                resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                        "The server is busy with other requests. Please try again in a few minutes.");
+                return;
+            }
+            // an identical request submitted at the same time got there first
+            if (!job.getId().equals(uniqueId))
+                tmpFile.delete();
+        }
+        if (job.getState() == Job.State.DONE)
+            resp.sendRedirect(resp.encodeRedirectURL(job.getRedirectUrl()));
+        else
+            resp.sendRedirect(resp.encodeRedirectURL("/pcpromiscuity/queue.html?" + "id=" + job.getId()));
+    }
+
+    /**
+     * The SHA-1 of the database, search type and sorted distinct ids.
+     */
+    private static String getJobKey(String db, String searchType, List<Long> ids) {
+        StringBuilder text = new StringBuilder(db + "\t" + searchType);
+        for (Long id : new TreeSet<Long>(ids))
+            text.append("\t").append(id);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.toString().getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte bb : digest)
+                hex.append(Character.forDigit((bb >> 4) & 0xf, 16)).append(Character.forDigit(bb & 0xf, 16));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        JobRegistry.getInstance().shutdown();
+        super.destroy();
     }
 
     @Override
@@ -0,0 +1,213 @@
+/*                  
+ * Copyright 2011 The Scripps Research Institute                    
+ *                  
+ * Licensed under the Apache License, Version 2.0 (the "License");                  
+ * you may not use this file except in compliance with the License.                 
+ * You may obtain a copy of the License at                  
+ *                  
+ *     http://www.apache.org/licenses/LICENSE-2.0                   
+ *                  
+ * Unless required by applicable law or agreed to in writing, software                  
+ * distributed under the License is distributed on an "AS IS" BASIS,                    
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.                 
+ * See the License for the specific language governing permissions and                  
+ * limitations under the License.                   
+ */
+package edu.scripps.fl.queue;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+
+import edu.scripps.fl.pubchem.promiscuity.model.JobProgress;
+
+/**
+ * A job submitted to the {@link JobRegistry}, along with the page its results
+ * are shown on and where it is in its life.
+ */
+public class Job implements Runnable {
+
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED, CANCELLED
+    }
+
+    private final String id;
+    private final String key;
+    private final String redirectUrl;
+    private final Runnable task;
+    private final JobProgress progress;
+    private final long timeLimit;
+    private final long submittedTime = System.currentTimeMillis();
+    private volatile State state = State.QUEUED;
+    private volatile long startedTime, finishedTime;
+    private volatile long lastPolledTime = submittedTime;
+    private volatile Throwable error;
+    private volatile Future<?> future;
+    // the clients waiting for the job, see JobRegistry.attach
+    private final Set<String> waiters = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * @param key
+     *            identifies the work the job does, so identical submissions
+     *            can share it; null if it is never shared
+     * @param waiter
+     *            identifies the client that submitted the job
+     * @param timeLimit
+     *            how long the job may run in ms, 0 for no limit. Only enforced
+     *            if the task checks its progress for cancellation.
+     */
+    public Job(String id, String key, String waiter, String redirectUrl, Runnable task, JobProgress progress, long timeLimit) {
+        this.id = id;
+        this.key = key;
+        waiters.add(waiter);
+        this.redirectUrl = redirectUrl;
+        this.task = task;
+        this.progress = progress;
+        this.timeLimit = timeLimit;
+    }
+
+    public void run() {
+        synchronized (this) {
+            if (state != State.QUEUED)
+                return;
+            state = State.RUNNING;
+            startedTime = System.currentTimeMillis();
+            if (progress != null && timeLimit > 0)
+                progress.setDeadline(startedTime + timeLimit);
+        }
+        try {
+            task.run();
+            state = State.DONE;
+        } catch (Throwable ex) {
+            error = ex;
+            state = progress != null && progress.isCancelled() ? State.CANCELLED : State.FAILED;
+        } finally {
+            finishedTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Stops the job: a queued job never starts, and a running one is
+     * interrupted and stops at its next cancellation check.
+     */
+    public synchronized void cancel() {
+        if (isFinished())
+            return;
+        if (progress != null)
+            progress.cancel();
+        if (state == State.QUEUED) {
+            state = State.CANCELLED;
+            finishedTime = System.currentTimeMillis();
+        }
+        if (future != null)
+            future.cancel(true);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getRedirectUrl() {
+        return redirectUrl;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isFinished() {
+        return state == State.DONE || state == State.FAILED || state == State.CANCELLED;
+    }
+
+    /**
+     * Whether the job was stopped because it ran past its time limit rather
+     * than cancelled by a request.
+     */
+    public boolean isTimedOut() {
+        return state == State.CANCELLED && progress != null && !progress.isCancelRequested() && progress.isPastDeadline();
+    }
+
+    /**
+     * Interrupts a running job that is past its time limit, so it stops
+     * waiting on whatever it is waiting for and reaches its next cancellation
+     * check.
+     */
+    void interrupt() {
+        if (future != null)
+            future.cancel(true);
+    }
+
+    /**
+     * Where the task reports how far it has got, or null if it does not.
+     */
+    public JobProgress getProgress() {
+        return progress;
+    }
+
+    public long getSubmittedTime() {
+        return submittedTime;
+    }
+
+    /**
+     * When the job started running, or 0 while it is queued.
+     */
+    public long getStartedTime() {
+        return startedTime;
+    }
+
+    /**
+     * When the job finished, or 0 while it is queued or running.
+     */
+    public long getFinishedTime() {
+        return finishedTime;
+    }
+
+    /**
+     * When the status of the job was last asked for, to tell when nobody is
+     * waiting for it any more.
+     */
+    public long getLastPolledTime() {
+        return lastPolledTime;
+    }
+
+    public void polled() {
+        lastPolledTime = System.currentTimeMillis();
+    }
+
+    /**
+     * What the job failed with, or null unless it is {@link State#FAILED} or
+     * {@link State#CANCELLED}.
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    void attach(String waiter) {
+        waiters.add(waiter);
+    }
+
+    /**
+     * Returns false if the client was not waiting for the job.
+     */
+    boolean detach(String waiter) {
+        return waiters.remove(waiter);
+    }
+
+    boolean hasWaiters() {
+        return !waiters.isEmpty();
+    }
+
+    public Future<?> getFuture() {
+        return future;
+    }
+
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+}
@@ -0,0 +1,288 @@
+/*                  
+ * Copyright 2011 The Scripps Research Institute                    
+ *                  
+ * Licensed under the Apache License, Version 2.0 (the "License");                  
+ * you may not use this file except in compliance with the License.                 
+ * You may obtain a copy of the License at                  
+ *                  
+ *     http://www.apache.org/licenses/LICENSE-2.0                   
+ *                  
+ * Unless required by applicable law or agreed to in writing, software                  
+ * distributed under the License is distributed on an "AS IS" BASIS,                    
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.                 
+ * See the License for the specific language governing permissions and                  
+ * limitations under the License.                   
+ */
+package edu.scripps.fl.queue;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.scripps.fl.pubchem.promiscuity.model.JobProgress;
+
+/**
+ * The jobs of the web application by id. Jobs run on a fixed number of threads
+ * and at most maxQueued more wait for one; submitting a job beyond that is
+ * rejected so the caller can tell the user the server is busy instead of the
+ * backlog growing without bound.
+ * 
+ * Jobs submitted with the same key do the same work, so a submission whose
+ * key matches a queued or running job is attached to it, and one that matches
+ * a job finished less than resultTimeToLive ms ago is given its results.
+ * 
+ * A watchdog cancels jobs that run past the time limit and jobs nobody has
+ * polled for abandonedAfter ms (the browser was closed), and forgets finished
+ * jobs once their results are no longer reused.
+ */
+public class JobRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(JobRegistry.class);
+
+    public static final int DEFAULT_MAX_QUEUED = 100;
+    public static final long DEFAULT_ABANDONED_AFTER = 10 * 60 * 1000;
+    public static final long DEFAULT_RESULT_TIME_TO_LIVE = 30 * 60 * 1000;
+    // how long a finished job is kept at least, so its last polls still find it
+    private static final long MIN_KEEP_FINISHED = 5 * 60 * 1000;
+    private static final long WATCHDOG_PERIOD = 10 * 1000;
+
+    private static volatile JobRegistry instance;
+
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentMap<String, Job> jobs = new ConcurrentHashMap<String, Job>();
+    private final ConcurrentMap<String, Job> jobsByKey = new ConcurrentHashMap<String, Job>();
+    private final ScheduledExecutorService watchdog;
+    // 0 for no limit
+    private volatile long timeLimit = 0;
+    private volatile long abandonedAfter = DEFAULT_ABANDONED_AFTER;
+    private volatile long resultTimeToLive = DEFAULT_RESULT_TIME_TO_LIVE;
+
+    public JobRegistry(int threads, int maxQueued) {
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(maxQueued));
+        watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "job watchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        watchdog.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    checkJobs();
+                } catch (RuntimeException ex) {
+                    log.error("Unable to check jobs", ex);
+                }
+            }
+        }, WATCHDOG_PERIOD, WATCHDOG_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    public static JobRegistry getInstance() {
+        return instance;
+    }
+
+    public static void setInstance(JobRegistry registry) {
+        instance = registry;
+    }
+
+    /**
+     * Returns the job with the key if it can be shared, that is if it is
+     * still queued or running or its results are fresh, after attaching the
+     * client to it. Attaching the same client twice has no further effect.
+     * Returns null if there is no such job.
+     */
+    public Job attach(String key, String waiter) {
+        Job job = jobsByKey.get(key);
+        if (job == null || !isShareable(job))
+            return null;
+        job.attach(waiter);
+        log.info("Attached to job " + job.getId());
+        return job;
+    }
+
+    private boolean isShareable(Job job) {
+        switch (job.getState()) {
+        case QUEUED:
+        case RUNNING:
+            return job.getProgress() == null || !job.getProgress().isCancelled();
+        case DONE:
+            return System.currentTimeMillis() - job.getFinishedTime() <= resultTimeToLive;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Queues the task under the id. The progress, if not null, is what the
+     * task updates as it runs. If another submission with the same key got
+     * there first and its job can be shared, that job is returned instead and
+     * the task is not run; the caller can tell by the id of the job.
+     * 
+     * @param key
+     *            what the task computes, null if it is not to be shared
+     * @param waiter
+     *            identifies the client, e.g. by its session id
+     * @throws RejectedExecutionException
+     *             if the backlog is full
+     */
+    public Job submit(String id, String key, String waiter, String redirectUrl, Runnable task, JobProgress progress)
+            throws RejectedExecutionException {
+        Job job = new Job(id, key, waiter, redirectUrl, task, progress, timeLimit);
+        while (key != null) {
+            Job existing = jobsByKey.putIfAbsent(key, job);
+            if (existing == null)
+                break;
+            if (isShareable(existing)) {
+                existing.attach(waiter);
+                log.info("Attached to job " + existing.getId());
+                return existing;
+            }
+            if (jobsByKey.replace(key, existing, job))
+                break;
+        }
+        jobs.put(id, job);
+        try {
+            job.setFuture(executor.submit(job));
+        } catch (RejectedExecutionException ex) {
+            jobs.remove(id);
+            if (key != null)
+                jobsByKey.remove(key, job);
+            log.warn(String.format("Rejected job %s, %s running and %s queued", id, executor.getActiveCount(), executor.getQueue()
+                    .size()));
+            throw ex;
+        }
+        return job;
+    }
+
+    /**
+     * The job with the id, or null if there is none.
+     */
+    public Job get(String id) {
+        return jobs.get(id);
+    }
+
+    public Job remove(String id) {
+        Job job = jobs.remove(id);
+        if (job != null && job.getKey() != null)
+            jobsByKey.remove(job.getKey(), job);
+        return job;
+    }
+
+    /**
+     * Detaches the client from the job with the id, and cancels the job once
+     * no client is waiting for it, taking it out of the backlog if it has not
+     * started. Returns false if the client was not waiting for such a job.
+     */
+    public boolean cancel(String id, String waiter) {
+        Job job = jobs.get(id);
+        if (job == null || !job.detach(waiter))
+            return false;
+        if (job.hasWaiters()) {
+            log.info("Not cancelling job " + id + ", other requests are waiting for it");
+            return true;
+        }
+        log.info("Cancelling job " + id);
+        job.cancel();
+        if (job.getFuture() != null)
+            executor.remove((Runnable) job.getFuture());
+        return true;
+    }
+
+    // run by the watchdog, and by JobRegistryTest
+    void checkJobs() {
+        long now = System.currentTimeMillis();
+        for (Job job : jobs.values()) {
+            boolean abandoned = abandonedAfter > 0 && now - job.getLastPolledTime() > abandonedAfter;
+            if (job.isFinished()) {
+                if (now - job.getFinishedTime() > Math.max(resultTimeToLive, MIN_KEEP_FINISHED))
+                    remove(job.getId());
+            } else if (job.getState() == Job.State.RUNNING && job.getProgress() != null && job.getProgress().isPastDeadline()) {
+                log.info("Job " + job.getId() + " exceeded its time limit");
+                job.interrupt();
+            } else if (abandoned) {
+                log.info("Job " + job.getId() + " has not been polled since " + job.getLastPolledTime());
+                job.cancel();
+                if (job.getFuture() != null)
+                    executor.remove((Runnable) job.getFuture());
+            }
+        }
+    }
+
+    /**
+     * How long a job may run in ms before it is cancelled, 0 for no limit.
+     * Applies to jobs submitted afterwards.
+     */
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    public long getTimeLimit() {
+        return timeLimit;
+    }
+
+    /**
+     * How long in ms a queued or running job is kept once nobody polls it, 0
+     * to never cancel a job for that.
+     */
+    public void setAbandonedAfter(long abandonedAfter) {
+        this.abandonedAfter = abandonedAfter;
+    }
+
+    public long getAbandonedAfter() {
+        return abandonedAfter;
+    }
+
+    /**
+     * How long in ms the results of a finished job are given to identical
+     * submissions.
+     */
+    public void setResultTimeToLive(long resultTimeToLive) {
+        this.resultTimeToLive = resultTimeToLive;
+    }
+
+    public long getResultTimeToLive() {
+        return resultTimeToLive;
+    }
+
+    /**
+     * The number of jobs queued ahead of the job, or -1 if it is no longer
+     * queued.
+     */
+    public int getQueuePosition(Job job) {
+        BlockingQueue<Runnable> queue = executor.getQueue();
+        int position = 0;
+        // the queue holds the futures submit returned
+        for (Runnable queued : queue) {
+            if (queued == job.getFuture())
+                return position;
+            position++;
+        }
+        return -1;
+    }
+
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    public int getRunningCount() {
+        return executor.getActiveCount();
+    }
+
+    public void shutdown() {
+        watchdog.shutdownNow();
+        for (Job job : jobs.values())
+            job.cancel();
+        executor.shutdownNow();
+    }
+
+}
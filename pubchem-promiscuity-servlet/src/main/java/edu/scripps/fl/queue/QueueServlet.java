@@ -16,11 +16,6 @@
 package edu.scripps.fl.queue;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -30,33 +25,90 @@ import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.scripps.fl.pubchem.promiscuity.model.JobProgress;
+
+/**
+ * Polled by queue.html until the job is finished, then sends the browser on
+ * to the job's results page. The JobRegistry forgets finished jobs, as other
+ * requests may share them. With format=json the job's state and progress are
+ * returned instead, see {@link #writeStatus}, and with action=cancel the
+ * caller gives up on the job.
+ */
 public class QueueServlet extends HttpServlet {
 
-    public static ExecutorService executor;
-    public static Map<Object, Future<?>> queueMap = new HashMap<Object, Future<?>>();
     private static final Logger log = LoggerFactory.getLogger(QueueServlet.class);
-    public static Map<Object, String> redirectMap = new HashMap<Object, String>();
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        Boolean finished = false;
-        Object uniqueId = req.getParameter("id");
+        String uniqueId = req.getParameter("id");
 
-        Future future = queueMap.get(uniqueId);
+        Job job = uniqueId != null ? JobRegistry.getInstance().get(uniqueId) : null;
+        if (job != null)
+            job.polled();
 
-        if (null == future) {
+        if ("cancel".equals(req.getParameter("action"))) {
+            if (job != null)
+                JobRegistry.getInstance().cancel(uniqueId, req.getSession().getId());
+            if ("json".equals(req.getParameter("format")))
+                writeStatus(job, resp);
+            else
+                resp.sendRedirect(resp.encodeRedirectURL("/pcpromiscuity/index.html"));
+            return;
+        }
+        if ("json".equals(req.getParameter("format"))) {
+            writeStatus(job, resp);
+            return;
+        }
+        if (null == job) {
             resp.sendRedirect(resp.encodeRedirectURL("/pcpromiscuity/missing.html"));
-        } else if (future.isDone()) {
-            queueMap.remove(uniqueId);
-            log.info(uniqueId.toString());
-            String rUrl = redirectMap.get(uniqueId);
-            redirectMap.remove(uniqueId);
-            resp.sendRedirect(resp.encodeRedirectURL(rUrl));
+        } else if (job.getState() == Job.State.DONE) {
+            log.info(uniqueId);
+            resp.sendRedirect(resp.encodeRedirectURL(job.getRedirectUrl()));
+        } else if (job.getState() == Job.State.FAILED) {
+            log.warn("Job failed: " + uniqueId, job.getError());
+            resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Your request could not be processed. Please resubmit.");
+        } else if (job.getState() == Job.State.CANCELLED) {
+            if (job.isTimedOut())
+                resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                        "Your request took longer than this server allows. Please resubmit it with fewer compounds.");
+            else
+                resp.sendError(HttpServletResponse.SC_GONE, "Your request was cancelled.");
         } else {
             resp.sendRedirect(resp.encodeRedirectURL("/pcpromiscuity/queue.html?" + "id=" + uniqueId));
         }
     }
 
+    /**
+     * Writes the job as JSON: its state (queued, running, done, failed,
+     * cancelled or missing), the number of jobs ahead of it while it is queued and the
+     * progress of each stage. The job is left in the registry so the page
+     * can then fetch the results the usual way.
+     */
+    private void writeStatus(Job job, HttpServletResponse resp) throws IOException {
+        StringBuilder json = new StringBuilder("{");
+        if (job == null)
+            json.append("\"state\":\"missing\"");
+        else {
+            json.append("\"state\":\"" + job.getState().name().toLowerCase() + "\"");
+            if (job.getState() == Job.State.QUEUED)
+                json.append(",\"position\":" + JobRegistry.getInstance().getQueuePosition(job));
+            if (job.isTimedOut())
+                json.append(",\"timedOut\":true");
+            JobProgress progress = job.getProgress();
+            if (progress != null) {
+                JobProgress.Stage stage = progress.getCurrentStage();
+                if (stage != null)
+                    json.append(",\"stage\":\"" + stage.name().toLowerCase() + "\"");
+                json.append(",\"stages\":" + progress.toJSON());
+            }
+        }
+        json.append("}");
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Cache-Control", "no-cache");
+        resp.getWriter().write(json.toString());
+    }
+
 //  try catch?
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
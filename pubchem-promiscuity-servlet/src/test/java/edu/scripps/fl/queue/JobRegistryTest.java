@@ -0,0 +1,170 @@
+/*                  
+ * Copyright 2011 The Scripps Research Institute                    
+ *                  
+ * Licensed under the Apache License, Version 2.0 (the "License");                  
+ * you may not use this file except in compliance with the License.                 
+ * You may obtain a copy of the License at                  
+ *                  
+ *     http://www.apache.org/licenses/LICENSE-2.0                   
+ *                  
+ * Unless required by applicable law or agreed to in writing, software                  
+ * distributed under the License is distributed on an "AS IS" BASIS,                    
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.                 
+ * See the License for the specific language governing permissions and                  
+ * limitations under the License.                   
+ */
+package edu.scripps.fl.queue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import edu.scripps.fl.pubchem.promiscuity.model.JobProgress;
+
+/**
+ * Checks the bounded backlog of the JobRegistry, sharing jobs between
+ * identical submissions, detaching and cancelling, and giving up on and
+ * forgetting jobs.
+ */
+public class JobRegistryTest extends TestCase {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private JobRegistry registry;
+
+    @Override
+    protected void setUp() {
+        registry = new JobRegistry(1, 1);
+    }
+
+    @Override
+    protected void tearDown() {
+        release.countDown();
+        registry.shutdown();
+    }
+
+    public void testBacklogIsBounded() throws Exception {
+        Job running = submit("a", "key a", "s1");
+        Job queued = submit("b", "key b", "s1");
+        try {
+            submit("c", "key c", "s1");
+            fail("the backlog is full");
+        } catch (RejectedExecutionException ex) {
+        }
+        assertNull(registry.get("c"));
+        assertNull(registry.attach("key c", "s2"));
+        assertEquals(0, registry.getQueuePosition(queued));
+        assertEquals(1, registry.getQueuedCount());
+
+        release.countDown();
+        waitFor(running, Job.State.DONE);
+        waitFor(queued, Job.State.DONE);
+        assertEquals(-1, registry.getQueuePosition(queued));
+    }
+
+    public void testIdenticalSubmissionsShareAJob() throws Exception {
+        Job job = submit("a", "key", "s1");
+        assertSame(job, registry.attach("key", "s2"));
+        assertSame(job, submit("b", "key", "s3"));
+        assertNull(registry.get("b"));
+        assertNull(registry.attach("other key", "s2"));
+
+        release.countDown();
+        waitFor(job, Job.State.DONE);
+        // fresh results are given to identical requests
+        assertSame(job, registry.attach("key", "s4"));
+    }
+
+    public void testCancelOnlyOnceEveryClientDetached() throws Exception {
+        Job job = submit("a", "key", "s1");
+        registry.attach("key", "s2");
+        registry.attach("key", "s2");
+
+        assertTrue(registry.cancel("a", "s1"));
+        assertFalse(registry.cancel("a", "s1"));
+        assertFalse(registry.cancel("a", "unknown"));
+        assertFalse(registry.cancel("unknown", "s2"));
+        assertFalse(job.isFinished());
+
+        assertTrue(registry.cancel("a", "s2"));
+        waitFor(job, Job.State.CANCELLED);
+        assertTrue(job.getProgress().isCancelRequested());
+        // a cancelled job is not shared
+        assertNull(registry.attach("key", "s3"));
+    }
+
+    public void testCancelQueuedJob() throws Exception {
+        Job running = submit("a", "key a", "s1");
+        Job queued = submit("b", "key b", "s1");
+        assertTrue(registry.cancel("b", "s1"));
+        assertEquals(Job.State.CANCELLED, queued.getState());
+        assertEquals(0, registry.getQueuedCount());
+        // the slot is free again
+        submit("c", "key c", "s1");
+
+        release.countDown();
+        waitFor(running, Job.State.DONE);
+    }
+
+    public void testStaleResultsAreReplaced() throws Exception {
+        release.countDown();
+        Job job = submit("a", "key", "s1");
+        waitFor(job, Job.State.DONE);
+        registry.setResultTimeToLive(0);
+        Thread.sleep(5);
+        assertNull(registry.attach("key", "s2"));
+
+        Job second = submit("b", "key", "s2");
+        assertNotSame(job, second);
+        waitFor(second, Job.State.DONE);
+        registry.setResultTimeToLive(JobRegistry.DEFAULT_RESULT_TIME_TO_LIVE);
+        assertSame(second, registry.attach("key", "s3"));
+
+        assertSame(second, registry.remove("b"));
+        assertNull(registry.get("b"));
+        assertNull(registry.attach("key", "s3"));
+    }
+
+    public void testAbandonedJobIsCancelled() throws Exception {
+        Job job = submit("a", "key", "s1");
+        registry.setAbandonedAfter(1);
+        Thread.sleep(5);
+        registry.checkJobs();
+        waitFor(job, Job.State.CANCELLED);
+        assertNull(registry.attach("key", "s2"));
+    }
+
+    public void testPolledJobIsKept() throws Exception {
+        Job job = submit("a", "key", "s1");
+        registry.setAbandonedAfter(60 * 1000);
+        job.polled();
+        registry.checkJobs();
+        assertFalse(job.isFinished());
+    }
+
+    /**
+     * Submits a job that runs until released, stopping early if it is
+     * cancelled.
+     */
+    private Job submit(String id, String key, String waiter) {
+        final JobProgress progress = new JobProgress();
+        return registry.submit(id, key, waiter, "results/" + id, new Runnable() {
+            public void run() {
+                try {
+                    while (!release.await(10, TimeUnit.MILLISECONDS))
+                        progress.checkCancelled();
+                } catch (InterruptedException ex) {
+                    progress.checkCancelled();
+                }
+            }
+        }, progress);
+    }
+
+    private static void waitFor(Job job, Job.State state) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (job.getState() != state && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+        assertEquals(state, job.getState());
+    }
+
+}
@@ -28,7 +28,16 @@ import edu.scripps.fl.pubchem.promiscuity.model.Protein;
 
 public class AssayESummaryHandler extends DefaultHandler {
 
-	private StringBuffer sb;
+	private static final int DOCUMENT_SUMMARY = 0, PROTEIN_TARGET = 1, GI = 2, NAME = 3;
+	private static final Map<String, Integer> tags = new HashMap<String, Integer>();
+	static {
+		tags.put("DocumentSummary", DOCUMENT_SUMMARY);
+		tags.put("ProteinTarget", PROTEIN_TARGET);
+		tags.put("GI", GI);
+		tags.put("Name", NAME);
+	}
+
+	private final TextBuffer text = new TextBuffer();
 	private Map<Long, List<Protein>> map = new HashMap<Long, List<Protein>>();
 	private Long uid;
 	private List<Protein> list;
@@ -40,31 +49,48 @@ public class AssayESummaryHandler extends DefaultHandler {
 	}
 
 	public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
-		sb = new StringBuffer();
-		if (qName.equalsIgnoreCase("DocumentSummary")) {
+		text.reset();
+		Integer tag = tag(qName);
+		if (tag == null)
+			return;
+		if (tag == DOCUMENT_SUMMARY) {
 			uid = Long.parseLong(attributes.getValue("uid"));
 			list = new ArrayList<Protein>();
-		}
-		if (qName.equalsIgnoreCase("ProteinTarget")) {
+		} else if (tag == PROTEIN_TARGET) {
 			protein = new Protein();
 			isProtein = true;
 		}
 	}
 
 	public void endElement(String uri, String localName, String qName) throws SAXException {
-		if (qName.equalsIgnoreCase("DocumentSummary")) {
+		Integer tag = tag(qName);
+		if (tag == null)
+			return;
+		if (tag == DOCUMENT_SUMMARY) {
 			if (list.size() > 0)
 				map.put(uid, list);
-		} else if ("ProteinTarget".equals(qName)) {
+		} else if (tag == PROTEIN_TARGET) {
 			list.add(protein);
 			isProtein = false;
-		} else if ("GI".equals(qName))
-			protein.setGi(Long.parseLong(sb.toString()));
-		else if (isProtein && "Name".equals(qName))
-			protein.setName(sb.toString());
+		} else if (tag == GI)
+			protein.setGi(text.parseLong());
+		else if (isProtein && tag == NAME)
+			protein.setName(text.toString());
+	}
+
+	// DocumentSummary and ProteinTarget also match in any case
+	private static Integer tag(String qName) {
+		Integer tag = tags.get(qName);
+		if (tag != null)
+			return tag;
+		if (qName.equalsIgnoreCase("DocumentSummary"))
+			return DOCUMENT_SUMMARY;
+		if (qName.equalsIgnoreCase("ProteinTarget"))
+			return PROTEIN_TARGET;
+		return null;
 	}
 
 	public void characters(char ch[], int start, int length) throws SAXException {
-		sb.append(ch, start, length);
+		text.append(ch, start, length);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.scripps.fl.pubchem.promiscuity.model.Protein;
+
+/**
+ * Process wide cache of AID to protein targets from assay ESummary documents,
+ * shared by every job. Entries are evicted least recently used first once the
+ * cache holds more than maxSize AIDs. AIDs without protein targets are cached
+ * with an empty list so they are not fetched again either.
+ */
+public class AssayProteinCache {
+
+	public static final int DEFAULT_MAX_SIZE = 200000;
+
+	private static volatile AssayProteinCache instance = new AssayProteinCache(DEFAULT_MAX_SIZE);
+
+	private final Map<Long, List<Protein>> map;
+	private final int maxSize;
+	private long hits = 0, misses = 0;
+
+	public AssayProteinCache(final int maxSize) {
+		this.maxSize = maxSize;
+		this.map = new LinkedHashMap<Long, List<Protein>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, List<Protein>> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	public static AssayProteinCache getInstance() {
+		return instance;
+	}
+
+	public static void setInstance(AssayProteinCache cache) {
+		instance = cache;
+	}
+
+	/**
+	 * Adds the cached targets of the AIDs that have any to found, and returns
+	 * the AIDs that are not cached.
+	 */
+	public synchronized List<Long> getAll(Collection<Long> aids, Map<Long, List<Protein>> found) {
+		List<Long> missing = new ArrayList<Long>();
+		for (Long aid : aids) {
+			List<Protein> proteins = map.get(aid);
+			if (proteins == null) {
+				missing.add(aid);
+				misses++;
+			} else {
+				if (proteins.size() > 0)
+					found.put(aid, proteins);
+				hits++;
+			}
+		}
+		return missing;
+	}
+
+	public synchronized void put(Long aid, List<Protein> proteins) {
+		map.put(aid, Collections.unmodifiableList(new ArrayList<Protein>(proteins)));
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+}
@@ -0,0 +1,186 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.lang.StringUtils;
+
+import edu.scripps.fl.pubchem.promiscuity.model.CompoundPromiscuityInfo;
+import edu.scripps.fl.pubchem.promiscuity.model.PCPromiscuityParameters;
+import edu.scripps.fl.pubchem.promiscuity.model.PromiscuityCount;
+import edu.scripps.fl.pubchem.promiscuity.model.Protein;
+
+/**
+ * Writes the results as CSV, one row per compound (or per protein of each
+ * compound in per protein mode) under a two line header.
+ */
+public class CSVResultWriter implements PromiscuityResultWriter {
+
+	private final File file;
+	private PCPromiscuityParameters params;
+	private String[] countColumns;
+	private Writer out;
+
+	public CSVResultWriter(File file) {
+		this.file = file;
+	}
+
+	public void start(PCPromiscuityParameters params) throws Exception {
+		this.params = params;
+		this.countColumns = params.getSimpleMode() ? new String[] { PCPromiscuityOutput.names[0] } : PCPromiscuityOutput.names;
+		out = new BufferedWriter(new FileWriter(file));
+		printCSVHeader();
+	}
+
+	public void write(CompoundResult result) throws Exception {
+		CompoundPromiscuityInfo cpInfo = result.getInfo();
+
+		out.write(result.getId().toString());
+
+		if (cpInfo == null) {
+			out.write(", unable to get compound information.");
+			out.write("\n");
+			return;
+		}
+		if (cpInfo.getOnHold()) {
+			out.write(", On Hold");
+			out.write("\n");
+			return;
+		}
+
+		printDescriptors(result);
+
+		if (!params.getPerProteinMode()) {
+			Map<String, PromiscuityCount<?>> counts = cpInfo.getCounts();
+			printCSVCount(counts);
+		} else {
+			Map<Protein, Map<String, PromiscuityCount<?>>> proteinCounts = cpInfo.getPerProteinCounts();
+			int count = 0;
+			for (Entry<Protein, Map<String, PromiscuityCount<?>>> proteinCount : proteinCounts.entrySet()) {
+				if (count > 0)
+					printExtraCommas();
+				out.write(",\"" + proteinCount.getKey().getName() + "\"");
+				printCSVCount(proteinCount.getValue());
+				count = count + 1;
+			}
+			Map<String, PromiscuityCount<?>> noProteinCounts = cpInfo.getNoProteinCounts();
+			if (count > 0)
+				printExtraCommas();
+			out.write(", No Proteins");
+			printCSVCount(noProteinCounts);
+		}
+	}
+
+	public void flush() throws Exception {
+		out.flush();
+	}
+
+	public void finish() throws Exception {
+		if (out != null)
+			out.close();
+	}
+
+	private void printCSVHeader() throws IOException {
+		if (params.getDatabase().equals("pcsubstance"))
+			out.write("SID,");
+		out.write("CID");
+		for (String fgCat : PCPromiscuityOutput.functionalGroupCategories) {
+			out.write("," + fgCat);
+		}
+		out.write(",PossibleFalseAromaticityDetection");
+		for (String cc : PCPromiscuityOutput.descriptorNames) {
+			out.write("," + cc);
+		}
+		if (params.getPerProteinMode())
+			out.write(",Protein");
+		for (String cc : countColumns) {
+			out.write("," + cc + ",");
+		}
+		out.write("\n,");
+		printExtraCommas();
+		for (String cc : countColumns) {
+			out.write(",Active,Total");
+		}
+		out.write("\n");
+	}
+
+	private void printExtraCommas() throws IOException {
+		if (params.getDatabase().equals("pcsubstance"))
+			out.write(",");
+		for (String fg : PCPromiscuityOutput.functionalGroupCategories) {
+			out.write(",");
+		}
+		for (String cc : PCPromiscuityOutput.descriptorNames) {
+			out.write(",");
+		}
+		if (params.getPerProteinMode())
+			out.write(",");
+	}
+
+	private void printDescriptors(CompoundResult result) throws IOException {
+		CompoundPromiscuityInfo cpInfo = result.getInfo();
+		if (params.getDatabase().equals("pcsubstance")) {
+			if (cpInfo.getCID() != null)
+				out.write("," + cpInfo.getCID());
+			else
+				out.write(",");
+		}
+
+		for (String category : PCPromiscuityOutput.functionalGroupCategories) {
+			List<String> groups = result.getFunctionalGroups(category);
+			if (groups != null) {
+				out.write(",\"");
+				out.write(StringUtils.join(groups, ","));
+				out.write("\"");
+			} else {
+				out.write(",");
+			}
+		}
+
+		if (cpInfo.isPossibleFalseAromaticityDetection())
+			out.write(",true");
+		else
+			out.write(",");
+
+		for (int ii = 0; ii < PCPromiscuityOutput.descriptorNames.length; ii++) {
+			String value = result.getDescriptor(ii);
+			if (value != null)
+				out.write(", " + value);
+			else
+				out.write(", ");
+		}
+	}
+
+	private void printCSVCount(Map<String, PromiscuityCount<?>> counts) throws IOException {
+		for (String cc : countColumns) {
+			PromiscuityCount<?> count = counts.get(cc);
+			if (count != null)
+				out.write("," + count.getActiveCount() + "," + count.getTotalCount());
+			else
+				out.write(",");
+		}
+		out.write("\n");
+	}
+
+}
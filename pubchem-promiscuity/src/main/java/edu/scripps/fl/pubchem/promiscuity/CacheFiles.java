@@ -0,0 +1,77 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * File helpers shared by the disk caches.
+ */
+class CacheFiles {
+
+	private CacheFiles() {
+	}
+
+	/**
+	 * Writes the file through a temporary file in the same directory and a
+	 * rename, so readers in other jobs never see a partially written entry.
+	 */
+	static void write(File file, String content) throws IOException {
+		File directory = file.getParentFile();
+		directory.mkdirs();
+		File tmpFile = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			Writer out = new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8");
+			try {
+				out.write(content);
+			} finally {
+				out.close();
+			}
+			if (!tmpFile.renameTo(file)) {
+				file.delete();
+				if (!tmpFile.renameTo(file))
+					throw new IOException("Unable to rename " + tmpFile + " to " + file);
+			}
+		} finally {
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 * The SHA-1 of the string as 40 hex digits, for use in file names.
+	 */
+	static String sha1(String str) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(str.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte bb : digest)
+				hex.append(Character.forDigit((bb >> 4) & 0xf, 16)).append(Character.forDigit(bb & 0xf, 16));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException ex) {
+			throw new RuntimeException(ex);
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+}
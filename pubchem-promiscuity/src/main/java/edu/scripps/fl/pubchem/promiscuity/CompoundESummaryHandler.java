@@ -15,72 +15,120 @@
  */
 package edu.scripps.fl.pubchem.promiscuity;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Arrays;
-import java.util.Date;
+import java.util.Calendar;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
+import edu.scripps.fl.pubchem.promiscuity.model.CompoundDescriptors;
 import edu.scripps.fl.pubchem.promiscuity.model.CompoundPromiscuityInfo;
 
 public class CompoundESummaryHandler extends DefaultHandler {
 
-	private static String cSmiles = "CanonicalSmiles", mWeight = "MolecularWeight", xLogP = "XLogP", hBondDonor = "HydrogenBondDonorCount",
-			hBondAcceptor = "HydrogenBondAcceptorCount";
+	private static final Logger log = LoggerFactory.getLogger(CompoundESummaryHandler.class);
 
-	private static Set<String> descriptors = new HashSet<String>(Arrays.asList(new String[] { "MinAC", "MaxAC", "MinTC", "MaxTC", cSmiles,
-			mWeight, xLogP, hBondDonor, hBondAcceptor, "TPSA", "Complexity", "RotatableBondCount", "MolecularFormula", "TotalFormalCharge",
-			"HeavyAtomCount", "AtomChiralCount", "AtomChiralDefCount", "AtomChiralUndefCount", "BondChiralCount", "BondChiralDefCount",
-			"BondChiralUndefCount", "IsotopeAtomCount", "CovalentUnitCount", "TautomerCount" }));
+	// tags looked up once per element instead of compared one by one;
+	// descriptors are numbered by their index in CompoundDescriptors.NAMES
+	private static final int DOCUMENT_SUMMARY = -1, HOLD_UNTIL_DATE = -2;
+	private static final Map<String, Integer> tags = new HashMap<String, Integer>();
+	static {
+		tags.put("DocumentSummary", DOCUMENT_SUMMARY);
+		tags.put("HoldUntilDate", HOLD_UNTIL_DATE);
+		for (int ii = 0; ii < CompoundDescriptors.NAMES.length; ii++)
+			tags.put(CompoundDescriptors.NAMES[ii], ii);
+	}
 
 	private Map<Long, CompoundPromiscuityInfo> map = new HashMap<Long, CompoundPromiscuityInfo>();
 	private CompoundPromiscuityInfo cpi = null;
 	private int depth = 0;
-	private StringBuffer sb;
+	private final TextBuffer text = new TextBuffer();
+	private final int today = today();
+	private final CompoundSummaryListener listener;
+
+	public CompoundESummaryHandler() {
+		this(null);
+	}
+
+	/**
+	 * @param listener
+	 *            called with each compound as soon as its DocumentSummary
+	 *            ends, may be null
+	 */
+	public CompoundESummaryHandler(CompoundSummaryListener listener) {
+		this.listener = listener;
+	}
 
 	public Map<Long, CompoundPromiscuityInfo> getCompoundIdMap() {
 		return map;
 	}
 
 	public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
-		sb = new StringBuffer();
+		text.reset();
 		depth++;
-		if (qName.equalsIgnoreCase("DocumentSummary")) {
+		Integer tag = tag(qName);
+		if (tag != null && tag == DOCUMENT_SUMMARY) {
 			cpi = new CompoundPromiscuityInfo();
 			cpi.setId(Long.parseLong(attributes.getValue("uid")));
 		}
 	}
 
 	public void endElement(String uri, String localName, String qName) throws SAXException {
-		if (qName.equalsIgnoreCase("DocumentSummary"))
-			map.put(cpi.getId(), cpi);
-		else if ("HoldUntilDate".equals(qName)) {
-			Date holdDate = getDate("yyyy/MM/dd", sb.toString());
-			if ((new Date()).compareTo(holdDate) < 0)
-				cpi.setOnHold(true);
-		} else if (depth == 4 && descriptors.contains(qName))
-			cpi.getDescriptors().put(qName, sb.toString());
+		Integer tag = tag(qName);
+		if (tag != null) {
+			if (tag == DOCUMENT_SUMMARY) {
+				cpi.getDescriptors().computeRuleOfFiveViolations();
+				map.put(cpi.getId(), cpi);
+				if (listener != null) {
+					try {
+						listener.compoundParsed(cpi);
+					} catch (Exception ex) {
+						throw new SAXException(ex);
+					}
+				}
+			} else if (tag == HOLD_UNTIL_DATE) {
+				int holdDate = text.parseDate();
+				if (holdDate > today)
+					cpi.setOnHold(true);
+			} else if (depth == 4)
+				setDescriptor(cpi.getDescriptors(), tag);
+		}
 		depth--;
 	}
 
-	private Date getDate(String format, String text) {
-		try {
-			DateFormat dateFormat = new SimpleDateFormat(format);
-			Date date = dateFormat.parse(text);
-			return date;
-		} catch (Exception ex) {
-			return null;
+	private void setDescriptor(CompoundDescriptors descriptors, int index) {
+		if (index == CompoundDescriptors.CANONICAL_SMILES)
+			descriptors.setCanonicalSmiles(text.toString());
+		else if (index == CompoundDescriptors.MOLECULAR_FORMULA)
+			descriptors.setMolecularFormula(text.toString());
+		else if (!text.isBlank()) {
+			try {
+				descriptors.setValue(index, text.toString(), text.parseDouble());
+			} catch (NumberFormatException ex) {
+				log.warn(String.format("Compound %s has a non numeric %s: %s", cpi.getId(), CompoundDescriptors.NAMES[index], text));
+			}
 		}
 	}
 
+	// DocumentSummary also matches in any case
+	private static Integer tag(String qName) {
+		Integer tag = tags.get(qName);
+		if (tag == null && qName.equalsIgnoreCase("DocumentSummary"))
+			return DOCUMENT_SUMMARY;
+		return tag;
+	}
+
+	// today as yyyyMMdd, to compare with TextBuffer.parseDate
+	private static int today() {
+		Calendar calendar = Calendar.getInstance();
+		return calendar.get(Calendar.YEAR) * 10000 + (calendar.get(Calendar.MONTH) + 1) * 100 + calendar.get(Calendar.DAY_OF_MONTH);
+	}
+
 	public void characters(char ch[], int start, int length) throws SAXException {
-		sb.append(ch, start, length);
+		text.append(ch, start, length);
 	}
 }
\ No newline at end of file
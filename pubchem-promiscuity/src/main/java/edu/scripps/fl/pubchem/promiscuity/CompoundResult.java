@@ -0,0 +1,93 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.scripps.fl.pubchem.promiscuity.model.CategorizedFunctionalGroups;
+import edu.scripps.fl.pubchem.promiscuity.model.CompoundDescriptors;
+import edu.scripps.fl.pubchem.promiscuity.model.CompoundPromiscuityInfo;
+import edu.scripps.fl.pubchem.promiscuity.model.FunctionalGroup;
+
+/**
+ * A compound ready to be written: its info along with the functional group
+ * names and formatted descriptors every output format shows, worked out once
+ * for all of the {@link PromiscuityResultWriter}s.
+ */
+public class CompoundResult {
+
+	private final Long id;
+	private final CompoundPromiscuityInfo info;
+	private final Map<String, List<String>> functionalGroups;
+	private final String[] descriptors;
+
+	public CompoundResult(Long id, CompoundPromiscuityInfo info) {
+		this.id = id;
+		this.info = info;
+		if (info == null || info.getOnHold()) {
+			functionalGroups = Collections.emptyMap();
+			descriptors = null;
+			return;
+		}
+		functionalGroups = new HashMap<String, List<String>>();
+		Map<String, CategorizedFunctionalGroups> categorizedFGMap = info.getCategorizedFunctionalGroupsMap();
+		for (String category : PCPromiscuityOutput.functionalGroupCategories) {
+			CategorizedFunctionalGroups cFGs = categorizedFGMap.get(category);
+			if (cFGs != null) {
+				List<String> groups = new ArrayList<String>();
+				for (FunctionalGroup group : cFGs.getFunctionalGroups())
+					groups.add(group.getName());
+				functionalGroups.put(category, groups);
+			}
+		}
+		CompoundDescriptors compoundDescriptors = info.getDescriptors();
+		descriptors = new String[PCPromiscuityOutput.descriptorNames.length];
+		for (int ii = 0; ii < descriptors.length; ii++)
+			descriptors[ii] = compoundDescriptors.format(PCPromiscuityOutput.descriptorNames[ii]);
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	/**
+	 * The compound's info, or null if it could not be processed.
+	 */
+	public CompoundPromiscuityInfo getInfo() {
+		return info;
+	}
+
+	/**
+	 * The names of the compound's functional groups in the category, or null
+	 * if it has none.
+	 */
+	public List<String> getFunctionalGroups(String category) {
+		return functionalGroups.get(category);
+	}
+
+	/**
+	 * The formatted value of the descriptor at the index in
+	 * {@link PCPromiscuityOutput#descriptorNames}, or null if it is missing.
+	 */
+	public String getDescriptor(int index) {
+		return descriptors[index];
+	}
+
+}
@@ -0,0 +1,29 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import edu.scripps.fl.pubchem.promiscuity.model.CompoundPromiscuityInfo;
+
+/**
+ * Receives each compound from {@link CompoundESummaryHandler} as soon as its
+ * DocumentSummary has been parsed, while the rest of the document is still
+ * being read.
+ */
+public interface CompoundSummaryListener {
+
+	void compoundParsed(CompoundPromiscuityInfo compound) throws Exception;
+
+}
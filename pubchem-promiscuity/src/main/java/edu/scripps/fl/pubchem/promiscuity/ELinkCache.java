@@ -0,0 +1,132 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Disk backed cache of compound (or substance) to AID ELink results. Every id
+ * is kept in its own file under a directory per database, one line per link
+ * name, and is ignored once it is older than the time to live. Ids ELink
+ * returned nothing for are kept as empty files, so they are not asked for
+ * again.
+ */
+public class ELinkCache {
+
+	private static final Logger log = LoggerFactory.getLogger(ELinkCache.class);
+
+	public static final long DEFAULT_TIME_TO_LIVE = 7L * 24 * 60 * 60 * 1000;
+
+	private static volatile ELinkCache instance = new ELinkCache(new File(System.getProperty("user.home"), ".pcpromiscuity" + File.separator
+			+ "elink"), DEFAULT_TIME_TO_LIVE);
+
+	private final File directory;
+	private final long timeToLive;
+
+	public ELinkCache(File directory, long timeToLive) {
+		this.directory = directory;
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * The cache shared by all jobs in this JVM, or null if caching is turned
+	 * off.
+	 */
+	public static ELinkCache getInstance() {
+		return instance;
+	}
+
+	public static void setInstance(ELinkCache cache) {
+		instance = cache;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public long getTimeToLive() {
+		return timeToLive;
+	}
+
+	/**
+	 * Returns the cached links (link name to AIDs) of every id that has a
+	 * fresh entry, an empty map for ids cached without links. Ids without an
+	 * entry are left out of the returned map.
+	 */
+	public Map<Long, Map<String, List<Long>>> get(String db, Collection<Long> ids) {
+		Map<Long, Map<String, List<Long>>> links = new HashMap<Long, Map<String, List<Long>>>();
+		long oldest = System.currentTimeMillis() - timeToLive;
+		for (Long id : ids) {
+			File file = getFile(db, id);
+			if (!file.exists() || file.lastModified() < oldest)
+				continue;
+			try {
+				links.put(id, read(file));
+			} catch (Exception ex) {
+				log.warn("Unable to read cached links from: " + file.getAbsolutePath(), ex);
+			}
+		}
+		return links;
+	}
+
+	public void put(String db, Long id, Map<String, List<Long>> links) {
+		StringBuilder content = new StringBuilder();
+		for (Map.Entry<String, List<Long>> entry : links.entrySet())
+			content.append(entry.getKey() + "\t" + StringUtils.join(entry.getValue(), ",") + "\n");
+		try {
+			CacheFiles.write(getFile(db, id), content.toString());
+		} catch (IOException ex) {
+			log.warn("Unable to cache links for id: " + id, ex);
+		}
+	}
+
+	private File getFile(String db, Long id) {
+		return new File(new File(directory, db), id + ".txt");
+	}
+
+	private Map<String, List<Long>> read(File file) throws IOException {
+		Map<String, List<Long>> links = new HashMap<String, List<Long>>();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				if (tab < 0)
+					continue;
+				List<Long> aids = new ArrayList<Long>();
+				for (String aid : StringUtils.split(line.substring(tab + 1), ','))
+					aids.add(Long.parseLong(aid));
+				links.put(line.substring(0, tab), aids);
+			}
+		} finally {
+			in.close();
+		}
+		return links;
+	}
+
+}
@@ -0,0 +1,250 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cheap screening keys for functional group matching. A key packs saturating
+ * 4 bit counts of carbon, nitrogen, oxygen, sulfur, phosphorus and halogen
+ * atoms, of ring closures and of double and triple bonds. The key of a SMARTS
+ * only counts the atoms and bonds the pattern certainly requires (atoms in OR
+ * lists, negations or recursive SMARTS are left out), while the key of a
+ * SMILES counts everything it contains. A pattern can then only match a
+ * compound if none of its counts is higher than the compound's.
+ *
+ * Double bonds are counted from the SMILES text, which is exact for the
+ * Kekule SMILES PubChem returns. SMILES with aromatic atoms get the highest
+ * double bond count so they are never screened out on it.
+ */
+public class FeatureKey {
+
+	private static final String[] elements = { "C", "N", "O", "S", "P", "F", "Cl", "Br", "I" };
+	private static final int[] atomicNumbers = { 6, 7, 8, 16, 15, 9, 17, 35, 53 };
+	private static final int RINGS = elements.length, DOUBLE_BONDS = RINGS + 1, TRIPLE_BONDS = RINGS + 2;
+	private static final int FEATURES = TRIPLE_BONDS + 1;
+	private static final long MAX_COUNT = 15;
+
+	// two letter symbols that must not be read as one of the elements above
+	private static final Set<String> twoLetterSymbols = new HashSet<String>();
+	static {
+		for (String symbol : new String[] { "Ca", "Cd", "Ce", "Cf", "Cm", "Cn", "Co", "Cr", "Cs", "Cu", "Na", "Nb", "Nd", "Ne", "Ni",
+				"No", "Np", "Os", "Sb", "Sc", "Se", "Sg", "Si", "Sm", "Sn", "Sr", "Pa", "Pb", "Pd", "Pm", "Po", "Pr", "Pt", "Pu", "Fe",
+				"Fl", "Fm", "Fr", "In", "Ir", "se", "as", "te" })
+			twoLetterSymbols.add(symbol);
+	}
+
+	private FeatureKey() {
+	}
+
+	/**
+	 * True unless the pattern key requires more of some feature than the
+	 * compound key has.
+	 */
+	public static boolean mayMatch(long patternKey, long compoundKey) {
+		for (int ii = 0; ii < FEATURES; ii++) {
+			if (count(patternKey, ii) > count(compoundKey, ii))
+				return false;
+		}
+		return true;
+	}
+
+	public static long forSmiles(String smiles) {
+		return parse(smiles, false);
+	}
+
+	public static long forSmarts(String smarts) {
+		return parse(smarts, true);
+	}
+
+	private static long count(long key, int feature) {
+		return (key >>> (feature * 4)) & MAX_COUNT;
+	}
+
+	private static long increment(long key, int feature) {
+		if (feature < 0 || count(key, feature) == MAX_COUNT)
+			return key;
+		return key + (1L << (feature * 4));
+	}
+
+	private static long parse(String str, boolean smarts) {
+		long key = 0;
+		boolean aromatic = false;
+		Set<String> openRings = new HashSet<String>();
+		StringBuilder bond = new StringBuilder();
+		int ii = 0;
+		while (ii < str.length()) {
+			char cc = str.charAt(ii);
+			if (cc == '[') {
+				int end = closingBracket(str, ii);
+				String atom = str.substring(ii + 1, end);
+				key = increment(key, smarts ? smartsElement(atom) : smilesElement(atom));
+				aromatic |= !smarts && Character.isLowerCase(firstLetter(atom));
+				key = bond(key, bond, smarts);
+				ii = end + 1;
+			} else if (Character.isDigit(cc) || cc == '%') {
+				String label = cc == '%' ? str.substring(ii, Math.min(ii + 3, str.length())) : String.valueOf(cc);
+				// a ring closure bond may be written at either end or at both;
+				// a SMARTS only counts it where the ring opens so it is never
+				// counted twice, a SMILES counts it wherever it is written
+				if (openRings.add(label)) {
+					key = increment(key, RINGS);
+					key = bond(key, bond, smarts);
+				} else {
+					openRings.remove(label);
+					if (!smarts)
+						key = bond(key, bond, smarts);
+				}
+				bond.setLength(0);
+				ii += label.length();
+			} else if ("-=#:~@!,;&/\\".indexOf(cc) >= 0) {
+				bond.append(cc);
+				ii++;
+			} else if (Character.isLetter(cc) || cc == '*') {
+				key = bond(key, bond, smarts);
+				String symbol = str.startsWith("Cl", ii) || str.startsWith("Br", ii) ? str.substring(ii, ii + 2) : String.valueOf(cc);
+				key = increment(key, indexOf(symbol));
+				aromatic |= Character.isLowerCase(cc);
+				ii += symbol.length();
+			} else {
+				// branches and dots
+				bond.setLength(0);
+				ii++;
+			}
+		}
+		if (aromatic && !smarts)
+			key |= MAX_COUNT << (DOUBLE_BONDS * 4);
+		return key;
+	}
+
+	private static long bond(long key, StringBuilder bond, boolean smarts) {
+		// only a bond written on its own is required in a SMARTS, not
+		// one in an OR list or negation
+		String str = bond.toString();
+		bond.setLength(0);
+		if (str.equals("=") || (!smarts && str.indexOf('=') >= 0))
+			return increment(key, DOUBLE_BONDS);
+		if (str.equals("#") || (!smarts && str.indexOf('#') >= 0))
+			return increment(key, TRIPLE_BONDS);
+		return key;
+	}
+
+	private static int closingBracket(String str, int start) {
+		int depth = 0;
+		for (int ii = start; ii < str.length(); ii++) {
+			char cc = str.charAt(ii);
+			if (cc == '[')
+				depth++;
+			else if (cc == ']' && --depth == 0)
+				return ii;
+		}
+		return str.length() - 1;
+	}
+
+	private static char firstLetter(String atom) {
+		for (int ii = 0; ii < atom.length(); ii++) {
+			if (Character.isLetter(atom.charAt(ii)))
+				return atom.charAt(ii);
+		}
+		return ' ';
+	}
+
+	private static int smilesElement(String atom) {
+		int ii = 0;
+		while (ii < atom.length() && Character.isDigit(atom.charAt(ii)))
+			ii++;
+		return leadingElement(atom, ii);
+	}
+
+	/**
+	 * The element a bracket atom certainly is, or -1. Only the parts of the
+	 * top level ';' conjunction without an OR are looked at, and in those only
+	 * the '&' terms that are not negated or recursive.
+	 */
+	private static int smartsElement(String atom) {
+		for (String part : splitTopLevel(atom, ';')) {
+			if (splitTopLevel(part, ',').size() > 1)
+				continue;
+			for (String term : splitTopLevel(part, '&')) {
+				if (term.length() == 0 || term.charAt(0) == '!' || term.charAt(0) == '$')
+					continue;
+				int ii = 0;
+				while (ii < term.length() && Character.isDigit(term.charAt(ii)))
+					ii++;
+				if (ii < term.length() && term.charAt(ii) == '#') {
+					int end = ii + 1;
+					while (end < term.length() && Character.isDigit(term.charAt(end)))
+						end++;
+					if (end > ii + 1) {
+						int number = Integer.parseInt(term.substring(ii + 1, end));
+						for (int jj = 0; jj < atomicNumbers.length; jj++) {
+							if (atomicNumbers[jj] == number)
+								return jj;
+						}
+					}
+					continue;
+				}
+				int element = leadingElement(term, ii);
+				if (element >= 0)
+					return element;
+			}
+		}
+		return -1;
+	}
+
+	private static int leadingElement(String atom, int ii) {
+		if (ii >= atom.length() || !Character.isLetter(atom.charAt(ii)))
+			return -1;
+		if (ii + 1 < atom.length()) {
+			String two = atom.substring(ii, ii + 2);
+			if (two.equals("Cl") || two.equals("Br"))
+				return indexOf(two);
+			if (twoLetterSymbols.contains(two))
+				return -1;
+		}
+		return indexOf(atom.substring(ii, ii + 1));
+	}
+
+	private static int indexOf(String symbol) {
+		for (int ii = 0; ii < elements.length; ii++) {
+			if (elements[ii].equalsIgnoreCase(symbol))
+				return ii;
+		}
+		return -1;
+	}
+
+	private static List<String> splitTopLevel(String str, char separator) {
+		List<String> parts = new ArrayList<String>();
+		int depth = 0, start = 0;
+		for (int ii = 0; ii < str.length(); ii++) {
+			char cc = str.charAt(ii);
+			if (cc == '(' || cc == '[')
+				depth++;
+			else if (cc == ')' || cc == ']')
+				depth--;
+			else if (cc == separator && depth == 0) {
+				parts.add(str.substring(start, ii));
+				start = ii + 1;
+			}
+		}
+		parts.add(str.substring(start));
+		return parts;
+	}
+
+}
@@ -0,0 +1,142 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.scripps.fl.pubchem.promiscuity.model.CategorizedFunctionalGroups;
+import edu.scripps.fl.pubchem.promiscuity.model.CompoundPromiscuityInfo;
+import edu.scripps.fl.pubchem.promiscuity.model.FunctionalGroup;
+
+/**
+ * Disk backed cache of functional group detection results keyed by canonical
+ * SMILES. Every SMILES is kept in its own file, named by its SHA-1, under a
+ * directory per {@link FunctionalGroupRegistry#getVersion() registry version},
+ * so results are never read back for a changed functional groups file. A file
+ * holds the aromaticity flag and one line per category with the names of the
+ * matched groups.
+ */
+public class FunctionalGroupCache {
+
+	private static final Logger log = LoggerFactory.getLogger(FunctionalGroupCache.class);
+
+	private static final String AROMATICITY = "#aromaticity";
+
+	private static volatile FunctionalGroupCache instance = new FunctionalGroupCache(new File(System.getProperty("user.home"),
+			".pcpromiscuity" + File.separator + "functionalgroups"));
+
+	private final File directory;
+
+	public FunctionalGroupCache(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * The cache shared by all jobs in this JVM, or null if caching is turned
+	 * off.
+	 */
+	public static FunctionalGroupCache getInstance() {
+		return instance;
+	}
+
+	public static void setInstance(FunctionalGroupCache cache) {
+		instance = cache;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Sets the cached functional groups and aromaticity flag of the SMILES on
+	 * the compound. Returns false, leaving the compound as it is, if there is
+	 * no usable entry.
+	 */
+	public boolean get(FunctionalGroupRegistry registry, String smiles, CompoundPromiscuityInfo compound) {
+		File file = getFile(registry, smiles);
+		if (!file.exists())
+			return false;
+		try {
+			Map<String, CategorizedFunctionalGroups> categorizedGroupsMap = new HashMap<String, CategorizedFunctionalGroups>();
+			boolean aromaticity = false;
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					String[] fields = StringUtils.splitPreserveAllTokens(line, '\t');
+					if (fields[0].equals(AROMATICITY)) {
+						aromaticity = Boolean.parseBoolean(fields[1]);
+						continue;
+					}
+					List<FunctionalGroup> groups = new ArrayList<FunctionalGroup>();
+					for (int ii = 1; ii < fields.length; ii++) {
+						FunctionalGroup group = registry.getGroup(fields[0], fields[ii]);
+						if (group == null)
+							return false;
+						groups.add(group);
+					}
+					CategorizedFunctionalGroups categorizedGroups = new CategorizedFunctionalGroups();
+					categorizedGroups.setCategory(fields[0]);
+					categorizedGroups.setFunctionalGroups(groups);
+					categorizedGroupsMap.put(fields[0], categorizedGroups);
+				}
+			} finally {
+				in.close();
+			}
+			compound.setCategorizedFunctionalGroupsMap(categorizedGroupsMap);
+			compound.setPossibleFalseAromaticityDetection(aromaticity);
+			return true;
+		} catch (Exception ex) {
+			log.warn("Unable to read cached functional groups from: " + file.getAbsolutePath(), ex);
+			return false;
+		}
+	}
+
+	public void put(FunctionalGroupRegistry registry, String smiles, CompoundPromiscuityInfo compound) {
+		StringBuilder content = new StringBuilder();
+		content.append(AROMATICITY + "\t" + compound.isPossibleFalseAromaticityDetection() + "\n");
+		for (CategorizedFunctionalGroups categorizedGroups : compound.getCategorizedFunctionalGroupsMap().values()) {
+			content.append(categorizedGroups.getCategory());
+			for (FunctionalGroup group : categorizedGroups.getFunctionalGroups())
+				content.append("\t" + group.getName());
+			content.append("\n");
+		}
+		try {
+			CacheFiles.write(getFile(registry, smiles), content.toString());
+		} catch (IOException ex) {
+			log.warn("Unable to cache functional groups for SMILES: " + smiles, ex);
+		}
+	}
+
+	private File getFile(FunctionalGroupRegistry registry, String smiles) {
+		String hash = CacheFiles.sha1(smiles);
+		// two levels so a directory does not hold millions of entries
+		return new File(new File(new File(directory, registry.getVersion()), hash.substring(0, 2)), hash + ".txt");
+	}
+
+}
@@ -28,6 +28,8 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
+import joelib2.molecule.Molecule;
+
 import org.dom4j.Document;
 import org.dom4j.Element;
 import org.dom4j.io.DOMReader;
@@ -35,8 +37,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
 
-import edu.scripps.fl.match.JoeLibMatcher;
-import edu.scripps.fl.match.SMARTSMatcher;
 import edu.scripps.fl.pubchem.promiscuity.model.CategorizedFunctionalGroups;
 import edu.scripps.fl.pubchem.promiscuity.model.CompoundPromiscuityInfo;
 import edu.scripps.fl.pubchem.promiscuity.model.FunctionalGroup;
@@ -51,45 +51,80 @@ public class FunctionalGroupDetectionFactory {
 
 	public void calculateFunctionalGroups(Map<Long, CompoundPromiscuityInfo> compounds) throws IOException,
 			ParserConfigurationException, SAXException, URISyntaxException {
-		List<CategorizedFunctionalGroups> catGroups = GetFunctionalGroups();
+		FunctionalGroupRegistry registry = FunctionalGroupRegistry.getInstance();
 		
 		for (Long id : compounds.keySet()) {
 			CompoundPromiscuityInfo compound = compounds.get(id);
-			if (!compound.getOnHold()) {
-				Map<String, CategorizedFunctionalGroups> categorizedCompoundGroupsMap = new HashMap<String, CategorizedFunctionalGroups>();
-				String smiles = (String) compound.getDescriptors().get(PCPromiscuityFactory.cSmiles);
-				log.info(id + "\t" + smiles);
-				if (smiles != null && !smiles.equals("")) {
-					SMARTSMatcher matcher = new JoeLibMatcher();
-					matcher.setTarget(smiles);
-					for (CategorizedFunctionalGroups catGroup : catGroups) {
-						CategorizedFunctionalGroups compoundCategGroups = new CategorizedFunctionalGroups();
-						List<FunctionalGroup> compoundGroups = new ArrayList<FunctionalGroup>();
-						for (FunctionalGroup group : catGroup.getFunctionalGroups()) {
-							if (matcher.matches(group.getSMARTS()))
-								compoundGroups.add(group);
-						}
-						compoundCategGroups.setFunctionalGroups(compoundGroups);
-						compoundCategGroups.setCategory(catGroup.getCategory());
-						categorizedCompoundGroupsMap.put(catGroup.getCategory(), compoundCategGroups);
+			calculateFunctionalGroups(compound, registry);
+			compounds.put(id, compound);
+		}
+	}
+
+	/**
+	 * Matches one compound against the pre-compiled patterns of the registry,
+	 * using a pattern set borrowed for the calling thread. Results are read
+	 * from and written to the {@link FunctionalGroupCache} when it is on.
+	 * Compounds on hold are left as they are.
+	 */
+	public void calculateFunctionalGroups(CompoundPromiscuityInfo compound, FunctionalGroupRegistry registry) {
+		if (!compound.getOnHold()) {
+			String smiles = compound.getDescriptors().getCanonicalSmiles();
+			log.info(compound.getId() + "\t" + smiles);
+			if (smiles != null && !smiles.equals("")) {
+				FunctionalGroupCache cache = FunctionalGroupCache.getInstance();
+				if (cache == null || !cache.get(registry, smiles, compound)) {
+					matchFunctionalGroups(compound, smiles, registry);
+					if (cache != null)
+						cache.put(registry, smiles, compound);
+				}
+			} else
+				compound.setCategorizedFunctionalGroupsMap(new HashMap<String, CategorizedFunctionalGroups>());
+		}
+	}
+
+	private void matchFunctionalGroups(CompoundPromiscuityInfo compound, String smiles, FunctionalGroupRegistry registry) {
+		Map<String, CategorizedFunctionalGroups> categorizedCompoundGroupsMap = new HashMap<String, CategorizedFunctionalGroups>();
+		Molecule target = registry.getTarget(smiles);
+		if (target == null)
+			log.warn("Unable to parse SMILES of compound " + compound.getId() + ": " + smiles);
+		long compoundKey = FeatureKey.forSmiles(smiles);
+		FunctionalGroupRegistry.PatternSet patterns = registry.borrowPatterns();
+		try {
+			for (CategorizedFunctionalGroups catGroup : registry.getCategorizedGroups()) {
+				CategorizedFunctionalGroups compoundCategGroups = new CategorizedFunctionalGroups();
+				List<FunctionalGroup> compoundGroups = new ArrayList<FunctionalGroup>();
+				if (target != null) {
+					for (FunctionalGroup group : catGroup.getFunctionalGroups()) {
+						if (registry.mayMatch(group, compoundKey) && patterns.matches(group, target))
+							compoundGroups.add(group);
 					}
-					compound.setPossibleFalseAromaticityDetection(matcher.checkAromaticityDetection());
 				}
-				compound.setCategorizedFunctionalGroupsMap(categorizedCompoundGroupsMap);
+				compoundCategGroups.setFunctionalGroups(compoundGroups);
+				compoundCategGroups.setCategory(catGroup.getCategory());
+				categorizedCompoundGroupsMap.put(catGroup.getCategory(), compoundCategGroups);
 			}
-			
-			compounds.put(id, compound);
+		} finally {
+			registry.returnPatterns(patterns);
 		}
+		compound.setPossibleFalseAromaticityDetection(target != null && registry.checkAromaticityDetection(target, smiles));
+		compound.setCategorizedFunctionalGroupsMap(categorizedCompoundGroupsMap);
+	}
+
+	/**
+	 * The functional groups file in the user's home directory, which
+	 * FunctionalGroups.xml is copied to when it does not exist yet.
+	 */
+	public static File getFunctionalGroupsFile() {
+		return new File(System.getProperty("user.home"), "FunctionalGroups_V2.xml");
 	}
 
 	protected List<CategorizedFunctionalGroups> GetFunctionalGroups() throws ParserConfigurationException, SAXException, IOException,
 			URISyntaxException {
 		List<CategorizedFunctionalGroups> categorizedGroups = new ArrayList<CategorizedFunctionalGroups>();
 
-		String fileName = System.getProperty("user.home") + "\\FunctionalGroups_V2.xml";
-		File functionalGroupsXML = new File(fileName);
+		File functionalGroupsXML = getFunctionalGroupsFile();
 		Document doc;
-		log.info("Looking for file: " + fileName);
+		log.info("Looking for file: " + functionalGroupsXML.getAbsolutePath());
 		if (functionalGroupsXML.exists()) {
 			log.info("Found file");
 			DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
@@ -0,0 +1,267 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import joelib2.molecule.BasicConformerMolecule;
+import joelib2.molecule.Molecule;
+import joelib2.smarts.BasicSMARTSPatternMatcher;
+import joelib2.smarts.SMARTSPatternMatcher;
+import joelib2.smiles.SMILESParser;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import edu.scripps.fl.pubchem.promiscuity.model.CategorizedFunctionalGroups;
+import edu.scripps.fl.pubchem.promiscuity.model.FunctionalGroup;
+
+/**
+ * The categorized functional groups with their SMARTS parsed once into query
+ * patterns, so matching a compound is only the graph search. The registry is
+ * built once per JVM from FunctionalGroups.xml and shared by every compound and
+ * job. Groups whose SMARTS cannot be parsed are logged and never match.
+ * Each pattern also gets a {@link FeatureKey} so groups a compound cannot
+ * contain are skipped before the subgraph search.
+ *
+ * A compiled pattern keeps the state of its last match, so each worker thread
+ * borrows a pattern set of its own. Sets are compiled when more threads match
+ * at once than there are sets, and are kept for later jobs.
+ *
+ * The registry and its groups are immutable. When the functional groups file
+ * in the user's home directory changes, the next {@link #getInstance()} loads
+ * a new registry and swaps it in, while jobs already running keep the one
+ * they started with.
+ */
+public class FunctionalGroupRegistry {
+
+	private static final Logger log = LoggerFactory.getLogger(FunctionalGroupRegistry.class);
+
+	private static volatile FunctionalGroupRegistry instance;
+	// the file the shared registry was loaded from and its modification time
+	// then, null for a registry that was set rather than loaded
+	private static volatile File source;
+	private static volatile long sourceModified;
+
+	private final List<CategorizedFunctionalGroups> categorizedGroups;
+	private final Map<FunctionalGroup, String> smarts = new HashMap<FunctionalGroup, String>();
+	private final Map<FunctionalGroup, Long> featureKeys = new HashMap<FunctionalGroup, Long>();
+	private final Map<String, FunctionalGroup> groupsByName = new HashMap<String, FunctionalGroup>();
+	private final String version;
+	private final Queue<PatternSet> patternSets = new ConcurrentLinkedQueue<PatternSet>();
+
+	public FunctionalGroupRegistry(List<CategorizedFunctionalGroups> categorizedGroups) {
+		List<CategorizedFunctionalGroups> copies = new ArrayList<CategorizedFunctionalGroups>();
+		for (CategorizedFunctionalGroups catGroup : categorizedGroups) {
+			CategorizedFunctionalGroups copy = new CategorizedFunctionalGroups();
+			copy.setCategory(catGroup.getCategory());
+			copy.setFunctionalGroups(Collections.unmodifiableList(new ArrayList<FunctionalGroup>(catGroup.getFunctionalGroups())));
+			copies.add(copy);
+		}
+		this.categorizedGroups = Collections.unmodifiableList(copies);
+		long start = System.currentTimeMillis();
+		PatternSet patternSet = new PatternSet();
+		StringBuilder definitions = new StringBuilder();
+		for (CategorizedFunctionalGroups catGroup : categorizedGroups) {
+			for (FunctionalGroup group : catGroup.getFunctionalGroups()) {
+				groupsByName.put(catGroup.getCategory() + "\t" + group.getName(), group);
+				definitions.append(catGroup.getCategory() + "\t" + group.getName() + "\t" + group.getSMARTS() + "\n");
+				SMARTSPatternMatcher pattern = new BasicSMARTSPatternMatcher();
+				if (pattern.init(group.getSMARTS())) {
+					smarts.put(group, group.getSMARTS());
+					featureKeys.put(group, FeatureKey.forSmarts(group.getSMARTS()));
+					patternSet.patterns.put(group, pattern);
+				} else
+					log.warn(String.format("Unable to parse SMARTS of functional group %s: %s", group.getName(), group.getSMARTS()));
+			}
+		}
+		patternSets.add(patternSet);
+		version = CacheFiles.sha1(definitions.toString());
+		log.info(String.format("Compiled %s functional group patterns in %s ms", smarts.size(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * The registry shared by all jobs in this JVM. It is loaded on first use
+	 * and reloaded when the functional groups file has changed since; if a
+	 * reload fails the loaded registry is kept.
+	 */
+	public static FunctionalGroupRegistry getInstance() throws ParserConfigurationException, SAXException, IOException,
+			URISyntaxException {
+		FunctionalGroupRegistry registry = instance;
+		if (registry != null && !isStale())
+			return registry;
+		return load();
+	}
+
+	public static synchronized void setInstance(FunctionalGroupRegistry registry) {
+		source = null;
+		instance = registry;
+	}
+
+	private static synchronized FunctionalGroupRegistry load() throws ParserConfigurationException, SAXException, IOException,
+			URISyntaxException {
+		if (instance != null && !isStale())
+			return instance;
+		File file = FunctionalGroupDetectionFactory.getFunctionalGroupsFile();
+		long modified = file.lastModified();
+		FunctionalGroupRegistry registry;
+		if (instance == null)
+			registry = new FunctionalGroupRegistry(new FunctionalGroupDetectionFactory().GetFunctionalGroups());
+		else {
+			try {
+				registry = new FunctionalGroupRegistry(new FunctionalGroupDetectionFactory().GetFunctionalGroups());
+			} catch (Exception ex) {
+				// don't try the broken file again until it changes
+				log.error("Unable to reload functional groups, keeping the loaded ones", ex);
+				sourceModified = modified;
+				return instance;
+			}
+			log.info("Reloaded functional groups from " + file.getAbsolutePath());
+		}
+		source = file;
+		// the file is written from the packaged resource when it is missing
+		sourceModified = modified != 0 ? modified : file.lastModified();
+		instance = registry;
+		return registry;
+	}
+
+	private static boolean isStale() {
+		File file = source;
+		return file != null && file.lastModified() != sourceModified;
+	}
+
+	public List<CategorizedFunctionalGroups> getCategorizedGroups() {
+		return categorizedGroups;
+	}
+
+	/**
+	 * A hash of every category, group name and SMARTS, which changes whenever
+	 * the functional groups file does.
+	 */
+	public String getVersion() {
+		return version;
+	}
+
+	public FunctionalGroup getGroup(String category, String name) {
+		return groupsByName.get(category + "\t" + name);
+	}
+
+	/**
+	 * Parses a SMILES into a molecule the patterns can be matched against, or
+	 * returns null if it cannot be parsed.
+	 */
+	public Molecule getTarget(String smiles) {
+		Molecule target = new BasicConformerMolecule();
+		if (!SMILESParser.smiles2molecule(target, smiles, ""))
+			return null;
+		return target;
+	}
+
+	/**
+	 * True if the SMILES writes more atoms as aromatic than JoeLib perceived
+	 * as aromatic in the molecule parsed from it, so aromatic groups may be
+	 * missed for the compound.
+	 */
+	public boolean checkAromaticityDetection(Molecule target, String smiles) {
+		int perceived = 0;
+		for (int ii = 1; ii <= target.getAtomsSize(); ii++) {
+			if (target.getAtom(ii).isAromatic())
+				perceived++;
+		}
+		return perceived < aromaticAtoms(smiles);
+	}
+
+	/**
+	 * Counts the atoms a SMILES writes as aromatic: lower case organic subset
+	 * atoms and bracket atoms whose element symbol is lower case.
+	 */
+	static int aromaticAtoms(String smiles) {
+		int count = 0;
+		for (int ii = 0; ii < smiles.length(); ii++) {
+			char ch = smiles.charAt(ii);
+			if (ch == '[') {
+				int end = smiles.indexOf(']', ii);
+				if (end < 0)
+					break;
+				int jj = ii + 1;
+				while (jj < end && Character.isDigit(smiles.charAt(jj)))
+					jj++;
+				if (jj < end && Character.isLowerCase(smiles.charAt(jj)))
+					count++;
+				ii = end;
+			} else if ("bcnops".indexOf(ch) >= 0)
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * False if the compound (by the feature key of its SMILES) lacks something
+	 * the group's pattern requires, so the pattern cannot match it.
+	 */
+	public boolean mayMatch(FunctionalGroup group, long compoundKey) {
+		Long patternKey = featureKeys.get(group);
+		return patternKey != null && FeatureKey.mayMatch(patternKey, compoundKey);
+	}
+
+	/**
+	 * Takes a pattern set for the calling thread, compiling a new one if every
+	 * set is in use. Hand it back with {@link #returnPatterns(PatternSet)}.
+	 */
+	public PatternSet borrowPatterns() {
+		PatternSet patternSet = patternSets.poll();
+		if (patternSet == null) {
+			patternSet = new PatternSet();
+			for (Map.Entry<FunctionalGroup, String> entry : smarts.entrySet()) {
+				SMARTSPatternMatcher pattern = new BasicSMARTSPatternMatcher();
+				pattern.init(entry.getValue());
+				patternSet.patterns.put(entry.getKey(), pattern);
+			}
+			log.debug("Compiled another functional group pattern set");
+		}
+		return patternSet;
+	}
+
+	public void returnPatterns(PatternSet patternSet) {
+		patternSets.add(patternSet);
+	}
+
+	public static class PatternSet {
+
+		private final Map<FunctionalGroup, SMARTSPatternMatcher> patterns = new HashMap<FunctionalGroup, SMARTSPatternMatcher>();
+
+		private PatternSet() {
+		}
+
+		public boolean matches(FunctionalGroup group, Molecule target) {
+			SMARTSPatternMatcher pattern = patterns.get(group);
+			return pattern != null && pattern.match(target);
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes an XML document element by element through StAX, indented the way
+ * dom4j's pretty print format does it: two spaces per level, text on the line
+ * of its element and elements without content as &lt;Name/&gt;. Nothing but
+ * the names of the open elements is kept, so memory does not grow with the
+ * document.
+ */
+class IndentingXMLWriter {
+
+	private static final XMLOutputFactory factory = XMLOutputFactory.newInstance();
+
+	private final XMLStreamWriter out;
+	private int depth = 0;
+	// a started element is written once it is known whether it has content
+	private String pendingElement = null;
+	private String pendingAttribute = null, pendingAttributeValue = null;
+
+	public IndentingXMLWriter(OutputStream stream) throws XMLStreamException {
+		out = factory.createXMLStreamWriter(stream, "UTF-8");
+		out.writeStartDocument("UTF-8", "1.0");
+	}
+
+	public void startElement(String name) throws XMLStreamException {
+		startElement(name, null, null);
+	}
+
+	public void startElement(String name, String attribute, String value) throws XMLStreamException {
+		writePending(false);
+		pendingElement = name;
+		pendingAttribute = attribute;
+		pendingAttributeValue = value;
+	}
+
+	public void endElement() throws XMLStreamException {
+		if (pendingElement != null)
+			writePending(true);
+		else {
+			depth--;
+			indent();
+			out.writeEndElement();
+		}
+	}
+
+	/**
+	 * Writes an element holding only text, or an empty element if the text is
+	 * null.
+	 */
+	public void textElement(String name, String text) throws XMLStreamException {
+		writePending(false);
+		indent();
+		if (text == null)
+			out.writeEmptyElement(name);
+		else {
+			out.writeStartElement(name);
+			out.writeCharacters(text);
+			out.writeEndElement();
+		}
+	}
+
+	public void flush() throws XMLStreamException {
+		out.flush();
+	}
+
+	/**
+	 * Closes any open elements and ends the document. The underlying stream is
+	 * left open.
+	 */
+	public void close() throws XMLStreamException {
+		while (depth > 0 || pendingElement != null)
+			endElement();
+		out.writeCharacters("\n");
+		out.writeEndDocument();
+		out.close();
+	}
+
+	private void writePending(boolean empty) throws XMLStreamException {
+		if (pendingElement == null)
+			return;
+		indent();
+		if (empty)
+			out.writeEmptyElement(pendingElement);
+		else {
+			out.writeStartElement(pendingElement);
+			depth++;
+		}
+		if (pendingAttribute != null)
+			out.writeAttribute(pendingAttribute, pendingAttributeValue);
+		pendingElement = null;
+		pendingAttribute = null;
+	}
+
+	private void indent() throws XMLStreamException {
+		out.writeCharacters("\n");
+		for (int ii = 0; ii < depth; ii++)
+			out.writeCharacters("  ");
+	}
+
+}
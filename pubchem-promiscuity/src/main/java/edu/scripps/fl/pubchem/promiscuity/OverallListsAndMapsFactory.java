@@ -17,72 +17,265 @@ package edu.scripps.fl.pubchem.promiscuity;
 
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
-import org.apache.commons.collections.map.MultiValueMap;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.scripps.fl.pubchem.promiscuity.model.JobProgress;
+import edu.scripps.fl.pubchem.promiscuity.model.LongSet;
 import edu.scripps.fl.pubchem.promiscuity.model.Protein;
 import edu.scripps.fl.pubchem.web.ELinkResult;
+import edu.scripps.fl.pubchem.web.entrez.ELinkWebSession;
 import edu.scripps.fl.pubchem.web.entrez.EUtilsFactory;
 
 public class OverallListsAndMapsFactory {
 
 	private static final Logger log = LoggerFactory.getLogger(OverallListsAndMapsFactory.class);
 
+	public static final int DEFAULT_ESEARCH_CHUNK_SIZE = 1000, DEFAULT_ESEARCH_THREADS = 3;
+
+	// shared by all jobs so the number of concurrent esearch requests stays
+	// bounded no matter how many jobs are running; started on first use
+	private static volatile ExecutorService esearchExecutor;
+	private static int esearchThreads = DEFAULT_ESEARCH_THREADS;
+
+	private int esearchChunkSize = DEFAULT_ESEARCH_CHUNK_SIZE;
+	private JobProgress progress;
+
+	/**
+	 * Sets the size of the shared esearch pool. Only allowed before the first
+	 * esearch, so no job ever finds the pool shut down under it.
+	 */
+	public static synchronized void setEsearchThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("esearch threads must be at least 1: " + threads);
+		if (esearchExecutor != null)
+			throw new IllegalStateException("The esearch pool is already running");
+		esearchThreads = threads;
+	}
+
+	private static ExecutorService getEsearchExecutor() {
+		ExecutorService executor = esearchExecutor;
+		if (executor == null) {
+			synchronized (OverallListsAndMapsFactory.class) {
+				if (esearchExecutor == null)
+					esearchExecutor = Executors.newFixedThreadPool(esearchThreads, new ThreadFactory() {
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "esearch");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+				executor = esearchExecutor;
+			}
+		}
+		return executor;
+	}
+
+	public int getEsearchChunkSize() {
+		return esearchChunkSize;
+	}
+
+	public void setEsearchChunkSize(int esearchChunkSize) {
+		if (esearchChunkSize < 1)
+			throw new IllegalArgumentException("esearch chunk size must be at least 1: " + esearchChunkSize);
+		this.esearchChunkSize = esearchChunkSize;
+	}
+
+	/**
+	 * Sets the progress of the job the requests are made for, so no more
+	 * esearch chunks are sent once it is cancelled.
+	 */
+	public void setProgress(JobProgress progress) {
+		this.progress = progress;
+	}
+
+	/**
+	 * ELinks each id to its tested and active AIDs. Ids with a fresh entry in
+	 * the {@link ELinkCache} are not sent to Entrez, and the links of the rest
+	 * are added to the cache. Ids ELink returns nothing for are left out of the
+	 * map.
+	 */
+	public Map<Long, Map<String, List<Long>>> compoundAIDLinks(List<Long> ids, String db) throws Exception {
+		List<String> linkNames = Arrays.asList(new String[] { db + "_pcassay", db + "_pcassay_active" });
+		Map<Long, Map<String, List<Long>>> compoundToAIDsMap = new HashMap<Long, Map<String, List<Long>>>();
+
+		ELinkCache cache = ELinkCache.getInstance();
+		List<Long> uncachedIds = ids;
+		if (cache != null) {
+			Map<Long, Map<String, List<Long>>> cached = cache.get(db, ids);
+			uncachedIds = new ArrayList<Long>();
+			for (Long id : ids) {
+				Map<String, List<Long>> links = cached.get(id);
+				if (links == null)
+					uncachedIds.add(id);
+				else if (!links.isEmpty())
+					compoundToAIDsMap.put(id, links);
+			}
+			log.info("Number of ids found in elink cache: " + cached.size());
+		}
+
+		if (uncachedIds.size() > 0) {
+			ELinkWebSession session = ELinkWebSession.newInstance(db, "pcassay", linkNames, uncachedIds, "");
+			log.info("Number of ids in compound to pcassay link request: " + uncachedIds.size());
+			session.run();
+			Map<Long, List<ELinkResult>> results = session.getELinkResultsAsMap();
+			for (Long id : uncachedIds) {
+				ELinkResult result = (ELinkResult) results.get(id);
+				if (result == null) {
+					// cached without links, so the id is not sent again
+					if (cache != null)
+						cache.put(db, id, Collections.<String, List<Long>> emptyMap());
+					continue;
+				}
+				Map<String, List<Long>> links = new HashMap<String, List<Long>>();
+				for (String linkName : linkNames) {
+					List<Long> aids = result.getIds("pcassay", linkName);
+					links.put(linkName, aids != null ? aids : new ArrayList<Long>());
+				}
+				compoundToAIDsMap.put(id, links);
+				if (cache != null)
+					cache.put(db, id, links);
+			}
+		}
+		return compoundToAIDsMap;
+	}
+
+	public Set<Long> allLinkedIds(Map<Long, Map<String, List<Long>>> links, String linkName) {
+		Set<Long> allIds = new HashSet<Long>();
+		for (Map<String, List<Long>> idLinks : links.values()) {
+			List<Long> ids = idLinks.get(linkName);
+			if (ids != null)
+				allIds.addAll(ids);
+		}
+		return allIds;
+	}
+
 	public List<Long> aidListEsearch(List<Long> ids, String searchTerm, String db) throws Exception {
-		List<Long> newAids = new ArrayList<Long>();
-		EUtilsFactory factory = new EUtilsFactory();
-		StringBuffer query = new StringBuffer();
-		query.append("(" + StringUtils.join(ids, "[" + db + "IdTested] OR "));
-		query.append("[" + db + "IdTested]) AND " + searchTerm);
-		newAids = factory.getIds(query.toString(), "pcassay");
-		return newAids;
+		return chunkedEsearch(ids, "[" + db + "IdTested]", searchTerm);
 	}
 
 	public List<Long> aidtoAIDListEsearch(List<Long> aids, String searchTerm) throws Exception {
-		List<Long> newAids = new ArrayList<Long>();
+		return chunkedEsearch(aids, "[uid]", searchTerm);
+	}
+
+	/**
+	 * Splits the ids into chunks of esearchChunkSize, runs one esearch per
+	 * chunk on the shared esearch pool and merges the AIDs in chunk order.
+	 */
+	private List<Long> chunkedEsearch(List<Long> ids, final String field, final String searchTerm) throws Exception {
+		if (ids.size() <= esearchChunkSize)
+			return esearch(ids, field, searchTerm);
+
+		ExecutorService executor = getEsearchExecutor();
+		List<Future<List<Long>>> futures = new ArrayList<Future<List<Long>>>();
+		for (int ii = 0; ii < ids.size(); ii += esearchChunkSize) {
+			final List<Long> chunk = ids.subList(ii, Math.min(ii + esearchChunkSize, ids.size()));
+			futures.add(executor.submit(new Callable<List<Long>>() {
+				public List<Long> call() throws Exception {
+					if (progress != null)
+						progress.checkCancelled();
+					return esearch(chunk, field, searchTerm);
+				}
+			}));
+		}
+		log.info("Split esearch of " + ids.size() + " ids into " + futures.size() + " chunks");
+
+		Set<Long> aids = new LinkedHashSet<Long>();
+		try {
+			for (Future<List<Long>> future : futures) {
+				try {
+					aids.addAll(future.get());
+				} catch (ExecutionException ex) {
+					if (ex.getCause() instanceof Exception)
+						throw (Exception) ex.getCause();
+					throw ex;
+				}
+			}
+		} finally {
+			for (Future<List<Long>> future : futures)
+				future.cancel(true);
+		}
+		return new ArrayList<Long>(aids);
+	}
+
+	private List<Long> esearch(List<Long> ids, String field, String searchTerm) throws Exception {
 		EUtilsFactory factory = new EUtilsFactory();
 		StringBuffer query = new StringBuffer();
-		query.append("(" + StringUtils.join(aids, "[uid] OR "));
-		query.append("[uid]) AND " + searchTerm);
-		newAids = factory.getIds(query.toString(), "pcassay");
-		return newAids;
+		query.append("(" + StringUtils.join(ids, field + " OR "));
+		query.append(field + ") AND " + searchTerm);
+		return factory.getIds(query.toString(), "pcassay");
 	}
 
-	public Set<Protein> allProteinSet(Map<Long, List<Protein>> aidProteinMap) {
-		Set<Protein> allProteinSet = new HashSet<Protein>();
-		for (Long ll : aidProteinMap.keySet()) {
-			List<Protein> proteins = aidProteinMap.get(ll);
-			if (proteins.size() > 0)
-				allProteinSet.addAll(proteins);
+	/**
+	 * Maps each AID with protein targets to its targets. Only the AIDs missing
+	 * from the shared {@link AssayProteinCache} are fetched with ESummary.
+	 */
+	public Map<Long, List<Protein>> getAIDProteinMap(List<Long> aids) throws Exception {
+		AssayProteinCache cache = AssayProteinCache.getInstance();
+		Map<Long, List<Protein>> aidProteinMap = new HashMap<Long, List<Protein>>();
+		List<Long> missing = cache.getAll(aids, aidProteinMap);
+		log.info("Number of aids found in protein target cache: " + (aids.size() - missing.size()));
+		if (missing.size() > 0) {
+			log.info("Number of aids in eSummary request: " + missing.size());
+			log.info("Memory usage before getting aid eSummary document: " + memUsage());
+			SAXParserFactory factory = SAXParserFactory.newInstance();
+			SAXParser saxParser = factory.newSAXParser();
+			AssayESummaryHandler handler = new AssayESummaryHandler();
+			InputStream is = EUtilsFactory.getInstance().getSummaries(missing, "pcassay");
+			saxParser.parse(is, handler);
+			log.info("Memory usage after getting aid eSummary document: " + memUsage());
+			Map<Long, List<Protein>> fetched = handler.getMap();
+			for (Long aid : missing) {
+				List<Protein> proteins = fetched.get(aid);
+				if (proteins != null) {
+					cache.put(aid, proteins);
+					aidProteinMap.put(aid, proteins);
+				} else
+					cache.put(aid, new ArrayList<Protein>());
+			}
 		}
-		return allProteinSet;
+		log.info(String.format("Protein target cache: %s entries, %s hits, %s misses", cache.size(), cache.getHits(), cache.getMisses()));
+		return aidProteinMap;
 	}
 
-	public Map<Long, List<Protein>> getAIDProteinMap(List<Long> aids) throws Exception {
-		log.info("Number of aids in eSummary request: " + aids.size());
-		log.info("Memory usage before getting aid eSummary document: " + memUsage());
-		SAXParserFactory factory = SAXParserFactory.newInstance();
-		SAXParser saxParser = factory.newSAXParser();
-		AssayESummaryHandler handler = new AssayESummaryHandler();
-		InputStream is = EUtilsFactory.getInstance().getSummaries(aids, "pcassay");
-		saxParser.parse(is, handler);
-		log.info("Memory usage after getting aid eSummary document: " + memUsage());
-		return handler.getMap();
+	/**
+	 * Maps each AID to the summary AIDs it is linked to, so the summaries of a
+	 * compound can be found from its own AIDs.
+	 */
+	public Map<Long, LongSet> getAIDToSummariesMap(Map<Long, List<ELinkResult>> aidToSummaryMap) {
+		Map<Long, LongSet> map = new HashMap<Long, LongSet>(aidToSummaryMap.size() * 2);
+		for (Long ll : aidToSummaryMap.keySet()) {
+			ELinkResult result = (ELinkResult) aidToSummaryMap.get(ll);
+			if (result == null)
+				continue;
+			List<Long> summaries = result.getIds("pcassay", "pcassay_pcassay_neighbor_list");
+			if (summaries != null && summaries.size() > 0)
+				map.put(ll, LongSet.of(summaries));
+		}
+		return map;
 	}
 
-	public MultiValueMap getSummaryToAIDsMap(Map<Long, List<ELinkResult>> aidToSummaryMap) {
-		MultiValueMap map = new MultiValueMap();
+	public Map<Long, LongSet> getSummaryToAIDsMap(Map<Long, List<ELinkResult>> aidToSummaryMap) {
+		Map<Long, List<Long>> lists = new HashMap<Long, List<Long>>();
 		log.info("Memory used before summary to aids map: " + memUsage());
 		log.info("Setting up summary to AID map");
 		for (Long ll : aidToSummaryMap.keySet()) {
@@ -92,10 +285,16 @@ public class OverallListsAndMapsFactory {
 			List<Long> summaries = result.getIds("pcassay", "pcassay_pcassay_neighbor_list");
 			if (summaries != null) {
 				for (Long summary : summaries) {
-					map.put(summary, ll);
+					List<Long> aids = lists.get(summary);
+					if (aids == null)
+						lists.put(summary, aids = new ArrayList<Long>());
+					aids.add(ll);
 				}
 			}
 		}
+		Map<Long, LongSet> map = new HashMap<Long, LongSet>(lists.size() * 2);
+		for (Map.Entry<Long, List<Long>> entry : lists.entrySet())
+			map.put(entry.getKey(), LongSet.of(entry.getValue()));
 		log.info("Finished setting up summary to AID map");
 		log.info("Memory used after summary to aids map: " + memUsage());
 		return map;
@@ -106,20 +305,4 @@ public class OverallListsAndMapsFactory {
 		return mem / 1024 / 1024;
 	}
 
-	public Map<Protein, List<Long>> proteinAIDMap(Map<Long, List<Protein>> aidProteinMap, Set<Protein> allProteins) {
-		Map<Protein, List<Long>> proteinAIDMap = new HashMap<Protein, List<Long>>();
-		for (Protein protein : allProteins) {
-			List<Long> aids = new ArrayList<Long>();
-			for (Long aid : aidProteinMap.keySet()) {
-				List<Protein> aidProteins = aidProteinMap.get(aid);
-				if (aidProteins != null) {
-					if (aidProteins.contains(protein))
-						aids.add(aid);
-				}
-			}
-			proteinAIDMap.put(protein, aids);
-		}
-		return proteinAIDMap;
-	}
-
 }
@@ -21,54 +21,51 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
-import org.apache.commons.collections.CollectionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.scripps.fl.pubchem.promiscuity.model.AIDPromiscuityCount;
+import edu.scripps.fl.pubchem.promiscuity.model.CompoundDescriptors;
 import edu.scripps.fl.pubchem.promiscuity.model.CompoundPromiscuityInfo;
+import edu.scripps.fl.pubchem.promiscuity.model.LongSet;
 import edu.scripps.fl.pubchem.promiscuity.model.OverallListsAndMaps;
 import edu.scripps.fl.pubchem.promiscuity.model.PromiscuityCount;
 import edu.scripps.fl.pubchem.promiscuity.model.Protein;
-import edu.scripps.fl.pubchem.web.ELinkResult;
 import edu.scripps.fl.pubchem.web.entrez.EUtilsFactory;
 
 public class PCPromiscuityFactory {
 
 	protected static final String cSmiles = "CanonicalSmiles", mWeight = "MolecularWeight", xLogP = "XLogP",
-			hBondDonor = "HydrogenBondDonorCount", hBondAcceptor = "HydrogenBondAcceptorCount", ruleFiveName = "Rule Of 5 Violations";
+			hBondDonor = "HydrogenBondDonorCount", hBondAcceptor = "HydrogenBondAcceptorCount",
+			ruleFiveName = CompoundDescriptors.RULE_OF_FIVE_VIOLATIONS;
 
 	protected static final String allProteinsName = "AllProteins", noProteinsName = "NoProteinAssays", allAssayName = "AllAssays",
 			allProjectsName = "AllProjects", betaLactamaseName = "BetaLactamaseAssays", luciferaseName = "LuciferaseAssays",
 			chemblName = "ChEMBLAssays", mlpAssaysName = "MLPAssays", mlpProjectsNames = "MLPProjects",
 			fluorescentName = "FluorescenceAssays";
 
-	private static final String[] ruleOfFive = { mWeight, hBondDonor, hBondAcceptor, xLogP };
-
 	private static final Logger log = LoggerFactory.getLogger(PCPromiscuityFactory.class);
 
 	/**
 	 * advanced counts for per Compound mode(i.e. MLP assays,ChEMBL assays, Beta
 	 * Lactamase assays, Luciferase assays, Projects, MLP projects)
 	 */
-	@SuppressWarnings("unchecked")
 	private void addAdvancedAssayCounts(OverallListsAndMaps overall, Map<String, PromiscuityCount<?>> countMap) {
-		PromiscuityCount<Long> allAssayCount = (PromiscuityCount<Long>) countMap.get(PCPromiscuityFactory.allAssayName);
+		AIDPromiscuityCount allAssayCount = (AIDPromiscuityCount) countMap.get(PCPromiscuityFactory.allAssayName);
 		if (allAssayCount != null) {
-			List<Long> allAssayTotal = allAssayCount.getTotal();
-			List<Long> allAssayActive = allAssayCount.getActive();
+			LongSet allAssayTotal = allAssayCount.getTotalSet();
+			LongSet allAssayActive = allAssayCount.getActiveSet();
 
-			Map<String, List<Long>> advancedCountTotalMap = overall.getAdvancedCountTotalAIDMap();
+			Map<String, LongSet> advancedCountTotalMap = overall.getAdvancedCountTotalAIDMap();
 			for (String searchName : advancedCountTotalMap.keySet()) {
-				List<Long> aidList = advancedCountTotalMap.get(searchName);
-				List<Long> compoundAIDTotalList = (List<Long>) CollectionUtils.intersection(allAssayTotal, aidList);
-				List<Long> compoundAIDActiveList = (List<Long>) CollectionUtils.intersection(allAssayActive, aidList);
-				PromiscuityCount<Long> count = new PromiscuityCount<Long>(searchName, compoundAIDActiveList, compoundAIDTotalList);
+				LongSet aidList = advancedCountTotalMap.get(searchName);
+				AIDPromiscuityCount count = new AIDPromiscuityCount(searchName, allAssayActive.intersect(aidList), allAssayTotal
+						.intersect(aidList));
 				countMap.put(count.getName(), count);
 			}
 		}
@@ -88,19 +85,18 @@ public class PCPromiscuityFactory {
 		addAdvancedCounts(overall, countMapPerProtein);
 	}
 
-	public void addAllAssayCount(Long id, Map<Long, List<ELinkResult>> elinkResults, String db, Map<String, PromiscuityCount<?>> countMap) {
+	public void addAllAssayCount(Long id, Map<Long, Map<String, List<Long>>> compoundToAIDsMap, String db,
+			Map<String, PromiscuityCount<?>> countMap) {
 
-		ELinkResult result = (ELinkResult) elinkResults.get(id);
+		Map<String, List<Long>> links = compoundToAIDsMap.get(id);
 
-		List<Long> actives = new ArrayList<Long>();
-		List<Long> all = new ArrayList<Long>();
-		if (result != null) {
-			if (null != result.getIds("pcassay", db + "_pcassay_active"))
-				actives = result.getIds("pcassay", db + "_pcassay_active");
-			if (null != result.getIds("pcassay", db + "_pcassay"))
-				all = result.getIds("pcassay", db + "_pcassay");
+		LongSet actives = LongSet.EMPTY;
+		LongSet all = LongSet.EMPTY;
+		if (links != null) {
+			actives = LongSet.of(links.get(db + "_pcassay_active"));
+			all = LongSet.of(links.get(db + "_pcassay"));
 		}
-		PromiscuityCount<Long> allAssayCount = new PromiscuityCount<Long>(allAssayName, actives, all);
+		AIDPromiscuityCount allAssayCount = new AIDPromiscuityCount(allAssayName, actives, all);
 		countMap.put(allAssayName, allAssayCount);
 
 		log.info("\t all assay count complete: active: " + actives.size() + " total: " + all.size());
@@ -110,15 +106,16 @@ public class PCPromiscuityFactory {
 
 		log.info("\t adding all protein and no protein counts");
 
-		PromiscuityCount<Long> allAssays = (PromiscuityCount<Long>) counts.get(allAssayName);
+		AIDPromiscuityCount allAssays = (AIDPromiscuityCount) counts.get(allAssayName);
 
 		Set<Protein> activeProteins = new HashSet<Protein>();
 		Set<Protein> allProteins = new HashSet<Protein>();
 
-		List<Long> allProteinAIDs = overall.getAllProteinAIDs();
-		List<Long> activeProteinAIDs = (List<Long>) CollectionUtils.intersection(allAssays.getActive(), allProteinAIDs);
-		List<Long> totalProteinAIDs = (List<Long>) CollectionUtils.intersection(allAssays.getTotal(), allProteinAIDs);
-		for (Long aid : totalProteinAIDs) {
+		LongSet allProteinAIDs = overall.getAllProteinAIDs();
+		LongSet activeProteinAIDs = allAssays.getActiveSet().intersect(allProteinAIDs);
+		LongSet totalProteinAIDs = allAssays.getTotalSet().intersect(allProteinAIDs);
+		for (int ii = 0; ii < totalProteinAIDs.size(); ii++) {
+			long aid = totalProteinAIDs.get(ii);
 			List<Protein> proteins = overall.getAidProteinMap().get(aid);
 			if (proteins != null && proteins.size() > 0) {
 				allProteins.addAll(proteins);
@@ -135,37 +132,31 @@ public class PCPromiscuityFactory {
 	}
 
 	public void addAllNoProteinAIDCount(Map<String, PromiscuityCount<?>> countMap, OverallListsAndMaps overall) {
-		PromiscuityCount<Long> allAssayCount = (PromiscuityCount<Long>) countMap.get(PCPromiscuityFactory.allAssayName);
-		List<Long> actives = allAssayCount.getActive();
-		List<Long> total = allAssayCount.getTotal();
-		List<Long> allNoProteinAIDs = overall.getAllNoProteinAIDs();
-		List<Long> activeNoProtein = (List<Long>) CollectionUtils.intersection(allNoProteinAIDs, actives);
-		List<Long> totalNoProtein = (List<Long>) CollectionUtils.intersection(allNoProteinAIDs, total);
-		PromiscuityCount<Long> noProteinCount = new PromiscuityCount<Long>(noProteinsName, activeNoProtein, totalNoProtein);
+		AIDPromiscuityCount allAssayCount = (AIDPromiscuityCount) countMap.get(PCPromiscuityFactory.allAssayName);
+		LongSet allNoProteinAIDs = overall.getAllNoProteinAIDs();
+		LongSet activeNoProtein = allAssayCount.getActiveSet().intersect(allNoProteinAIDs);
+		LongSet totalNoProtein = allAssayCount.getTotalSet().intersect(allNoProteinAIDs);
+		AIDPromiscuityCount noProteinCount = new AIDPromiscuityCount(noProteinsName, activeNoProtein, totalNoProtein);
 		countMap.put(noProteinsName, noProteinCount);
 	}
 
-	@SuppressWarnings("unchecked")
 	private void addMLPProjectCounts(OverallListsAndMaps overall, Map<String, PromiscuityCount<?>> countMap) {
-		PromiscuityCount<Long> summaryCount = (PromiscuityCount<Long>) countMap.get(allProjectsName);
+		AIDPromiscuityCount summaryCount = (AIDPromiscuityCount) countMap.get(allProjectsName);
 		if (summaryCount != null) {
-			List<Long> mlpSummaryTotal = (List<Long>) CollectionUtils.intersection(summaryCount.getTotal(), overall.getMlpSummaries());
-			List<Long> mlpSummaryActive = (List<Long>) CollectionUtils.intersection(summaryCount.getActive(), overall.getMlpSummaries());
-			PromiscuityCount<Long> mlpSummaryCount = new PromiscuityCount<Long>(mlpProjectsNames, mlpSummaryActive, mlpSummaryTotal);
+			LongSet mlpSummaryTotal = summaryCount.getTotalSet().intersect(overall.getMlpSummaries());
+			LongSet mlpSummaryActive = summaryCount.getActiveSet().intersect(overall.getMlpSummaries());
+			AIDPromiscuityCount mlpSummaryCount = new AIDPromiscuityCount(mlpProjectsNames, mlpSummaryActive, mlpSummaryTotal);
 			countMap.put(mlpSummaryCount.getName(), mlpSummaryCount);
 		}
 	}
 
-	@SuppressWarnings("unchecked")
 	public void addProjectCountsPerCompound(OverallListsAndMaps overall, Map<String, PromiscuityCount<?>> countMap) {
 		log.info("\t adding project counts");
 
-		PromiscuityCount<Long> allAssayCount = (PromiscuityCount<Long>) countMap.get(allAssayName);
+		AIDPromiscuityCount allAssayCount = (AIDPromiscuityCount) countMap.get(allAssayName);
 		if (allAssayCount != null) {
-			List<Long> allAssayTotal = (ArrayList<Long>) allAssayCount.getTotal();
-			List<Long> allAssayActive = allAssayCount.getActive();
-			PromiscuityCount<Long> summaryCount = getSummaryCountPerCompound(overall.getAllSummaries(), overall.getSummaryToAIDsMap(),
-					allAssayTotal, allAssayActive, overall.getAidProteinMap(), overall.getSummaryProteinMap());
+			AIDPromiscuityCount summaryCount = getSummaryCountPerCompound(overall.getAidToSummariesMap(), overall.getSummaryToAIDsMap(),
+					allAssayCount.getTotalSet(), allAssayCount.getActiveSet(), overall.getAidProteinMap(), overall.getSummaryProteinMap());
 			countMap.put(summaryCount.getName(), summaryCount);
 		}
 
@@ -173,63 +164,43 @@ public class PCPromiscuityFactory {
 
 	}
 
-	@SuppressWarnings("unchecked")
 	private void addProjectCountsPerCompoundAndProtein(OverallListsAndMaps overall, Map<String, PromiscuityCount<?>> countMapPerProtein,
 			Map<String, PromiscuityCount<?>> countMapPerCompound) {
-		PromiscuityCount<Long> allAssayCount = (PromiscuityCount<Long>) countMapPerProtein.get(allAssayName);
+		AIDPromiscuityCount allAssayCount = (AIDPromiscuityCount) countMapPerProtein.get(allAssayName);
 		if (allAssayCount != null) {
-			PromiscuityCount<Long> allSummariesPerCompound = (PromiscuityCount<Long>) countMapPerCompound.get(allProjectsName);
+			AIDPromiscuityCount allSummariesPerCompound = (AIDPromiscuityCount) countMapPerCompound.get(allProjectsName);
 			if (allSummariesPerCompound != null) {
-				List<Long> totalSummary = getTotalSummaryListPerCompoundAndProtein(allSummariesPerCompound.getTotal(),
-						overall.getSummaryToAIDsMap(), allAssayCount.getTotal());
-
-				List<Long> activeSummary = new ArrayList<Long>();
-
-				activeSummary = (List<Long>) CollectionUtils.intersection(allSummariesPerCompound.getActive(), totalSummary);
-				PromiscuityCount<Long> count = new PromiscuityCount<Long>(allProjectsName, activeSummary, totalSummary);
+				LongSet totalSummary = getTotalSummaryListPerCompoundAndProtein(allSummariesPerCompound.getTotalSet(),
+						overall.getAidToSummariesMap(), allAssayCount.getTotalSet());
+				LongSet activeSummary = allSummariesPerCompound.getActiveSet().intersect(totalSummary);
+				AIDPromiscuityCount count = new AIDPromiscuityCount(allProjectsName, activeSummary, totalSummary);
 				countMapPerProtein.put(allProjectsName, count);
 			}
 		}
 	}
 
-	public void addRuleOfFiveViolations(CompoundPromiscuityInfo compound) {
-		Map<String, Object> descriptors = compound.getDescriptors();
-		Integer violations = 0;
-		Integer[] ruleOfFiveVals = new Integer[] { 500, 5, 10, 5 };
-
-		for (int ii = 0; ii <= 3; ii++) {
-			String oo = (String) descriptors.get(ruleOfFive[ii]);
-			if (oo != null && !oo.equals("")) {
-				Double dd = Double.parseDouble(oo);
-				if (dd > ruleOfFiveVals[ii])
-					violations = violations + 1;
-			}
-		}
-		descriptors.put(ruleFiveName, violations);
-		compound.setDescriptors(descriptors);
-	}
-
+	/**
+	 * Counts the assays of each protein target of a compound by walking the
+	 * compound's AIDs through the AID to protein targets map, so the work
+	 * grows with the compound's assays rather than with the target space.
+	 */
 	@SuppressWarnings("unchecked")
 	public Map<Protein, Map<String, PromiscuityCount<?>>> allAssayCountPerProtein(Map<String, PromiscuityCount<?>> countMap,
-			Map<Protein, List<Long>> proteinAIDMap) {
+			Map<Long, List<Protein>> aidProteinMap) {
 		Map<Protein, Map<String, PromiscuityCount<?>>> perProteinPromiscuityCountMap = new HashMap<Protein, Map<String, PromiscuityCount<?>>>();
 
 		PromiscuityCount<Protein> proteinCount = (PromiscuityCount<Protein>) countMap.get(allProteinsName);
 		if (proteinCount != null) {
 			List<Protein> totalProteins = proteinCount.getTotal();
-			PromiscuityCount<Long> allAssayCount = (PromiscuityCount<Long>) countMap.get(allAssayName);
+			AIDPromiscuityCount allAssayCount = (AIDPromiscuityCount) countMap.get(allAssayName);
 			if (allAssayCount != null) {
-				List<Long> allAssays = allAssayCount.getTotal();
-				List<Long> activeAssays = allAssayCount.getActive();
+				Map<Protein, List<Long>> totalAIDsPerProtein = aidsPerProtein(allAssayCount.getTotalSet(), aidProteinMap);
+				Map<Protein, List<Long>> activeAIDsPerProtein = aidsPerProtein(allAssayCount.getActiveSet(), aidProteinMap);
 
 				for (Protein protein : totalProteins) {
-					List<Long> activeAIDsPerProtein = new ArrayList<Long>();
-					List<Long> totalAIDsPerProtein = new ArrayList<Long>();
 					Map<String, PromiscuityCount<?>> promiscuityCountMap = new HashMap<String, PromiscuityCount<?>>();
-					List<Long> aids = proteinAIDMap.get(protein);
-					activeAIDsPerProtein = (List<Long>) CollectionUtils.intersection(activeAssays, aids);
-					totalAIDsPerProtein = (List<Long>) CollectionUtils.intersection(allAssays, aids);
-					PromiscuityCount<Long> count = new PromiscuityCount<Long>(allAssayName, activeAIDsPerProtein, totalAIDsPerProtein);
+					AIDPromiscuityCount count = new AIDPromiscuityCount(allAssayName, LongSet.of(activeAIDsPerProtein.get(protein)), LongSet
+							.of(totalAIDsPerProtein.get(protein)));
 					promiscuityCountMap.put(count.getName(), count);
 					perProteinPromiscuityCountMap.put(protein, promiscuityCountMap);
 				}
@@ -238,10 +209,27 @@ public class PCPromiscuityFactory {
 		return perProteinPromiscuityCountMap;
 	}
 
-	private void checkIfActiveSummary(List<Long> xrefAIDs, List<Long> allAssayActive, Long summaryAID, List<Long> summaryActive,
+	private Map<Protein, List<Long>> aidsPerProtein(LongSet aids, Map<Long, List<Protein>> aidProteinMap) {
+		Map<Protein, List<Long>> aidsPerProtein = new HashMap<Protein, List<Long>>();
+		for (int ii = 0; ii < aids.size(); ii++) {
+			Long aid = aids.get(ii);
+			List<Protein> proteins = aidProteinMap.get(aid);
+			if (proteins == null)
+				continue;
+			for (Protein protein : proteins) {
+				List<Long> proteinAIDs = aidsPerProtein.get(protein);
+				if (proteinAIDs == null)
+					aidsPerProtein.put(protein, proteinAIDs = new ArrayList<Long>());
+				proteinAIDs.add(aid);
+			}
+		}
+		return aidsPerProtein;
+	}
+
+	private void checkIfActiveSummary(LongSet xrefAIDs, LongSet allAssayActive, Long summaryAID, List<Long> summaryActive,
 			Map<Long, List<Protein>> aidProteinMap, Map<Long, List<Protein>> summaryProteinMap) {
 
-		List<Long> activeXrefAIDs = (List<Long>) CollectionUtils.intersection(xrefAIDs, allAssayActive);
+		LongSet activeXrefAIDs = xrefAIDs.intersect(allAssayActive);
 		if (activeXrefAIDs.size() > 0) {
 			Boolean isActive = true;
 			int ii = 0;
@@ -278,13 +266,22 @@ public class PCPromiscuityFactory {
 	}
 
 	public Map<Long, CompoundPromiscuityInfo> getCompoundsWithDescriptors(List<Long> ids, String db) throws Exception {
+		return getCompoundsWithDescriptors(ids, db, null);
+	}
+
+	/**
+	 * Parses the compound ESummary document, handing each compound to the
+	 * listener (if not null) as soon as it is parsed.
+	 */
+	public Map<Long, CompoundPromiscuityInfo> getCompoundsWithDescriptors(List<Long> ids, String db, CompoundSummaryListener listener)
+			throws Exception {
 		log.info("Number of compounds in eSummary request: " + ids.size());
 		log.info("Memory usage before getting compound eSummary document: " + memUsage());
 
 		InputStream is = EUtilsFactory.getInstance().getSummaries(ids, db);
 		SAXParserFactory factory = SAXParserFactory.newInstance();
 		SAXParser saxParser = factory.newSAXParser();
-		CompoundESummaryHandler handler = new CompoundESummaryHandler();
+		CompoundESummaryHandler handler = new CompoundESummaryHandler(listener);
 		saxParser.parse(is, handler);
 
 		log.info("Memory usage after getting compound eSummary document: " + memUsage());
@@ -292,31 +289,41 @@ public class PCPromiscuityFactory {
 		return handler.getCompoundIdMap();
 	}
 
-	private PromiscuityCount<Long> getSummaryCountPerCompound(Set<Long> allSummaries, Map<Long, List<Long>> summaryToAIDsMap,
-			List<Long> allAssayTotal, List<Long> allAssayActive, Map<Long, List<Protein>> aidProteinMap,
+	/**
+	 * Finds the summaries of a compound by walking its own AIDs through the
+	 * AID to summaries index. Only summaries linked to an active AID can be
+	 * active, so the rest are never checked.
+	 */
+	private AIDPromiscuityCount getSummaryCountPerCompound(Map<Long, LongSet> aidToSummariesMap, Map<Long, LongSet> summaryToAIDsMap,
+			LongSet allAssayTotal, LongSet allAssayActive, Map<Long, List<Protein>> aidProteinMap,
 			Map<Long, List<Protein>> summaryProteinMap) {
-		List<Long> summaryTotal = new ArrayList<Long>();
+		LongSet summaryTotal = linkedSummaries(aidToSummariesMap, allAssayTotal);
+		LongSet activeCandidates = linkedSummaries(aidToSummariesMap, allAssayActive).intersect(summaryTotal);
 		List<Long> summaryActive = new ArrayList<Long>();
-		for (Entry<Long, List<Long>> entry : summaryToAIDsMap.entrySet()) {
-			List<Long> xrefAIDs = entry.getValue();
-			if (CollectionUtils.containsAny(xrefAIDs, allAssayTotal)) {
-				summaryTotal.add(entry.getKey());
-				checkIfActiveSummary(xrefAIDs, allAssayActive, entry.getKey(), summaryActive, aidProteinMap, summaryProteinMap);
-			}
+		for (int ii = 0; ii < activeCandidates.size(); ii++) {
+			Long summaryAID = activeCandidates.get(ii);
+			checkIfActiveSummary(summaryToAIDsMap.get(summaryAID), allAssayActive, summaryAID, summaryActive, aidProteinMap,
+					summaryProteinMap);
 		}
-		PromiscuityCount<Long> summaryCount = new PromiscuityCount<Long>(allProjectsName, summaryActive, summaryTotal);
+		AIDPromiscuityCount summaryCount = new AIDPromiscuityCount(allProjectsName, LongSet.of(summaryActive), summaryTotal);
 		return summaryCount;
 	}
 
-	public List<Long> getTotalSummaryListPerCompoundAndProtein(List<Long> compoundSummaries, Map<Long, List<Long>> summaryToAIDsMap,
-			List<Long> allAssayTotal) {
-		List<Long> summaryTotal = new ArrayList<Long>();
-		for (Long summaryAID : compoundSummaries) {
-			List<Long> xrefAIDs = summaryToAIDsMap.get(summaryAID);
-			if (CollectionUtils.intersection(xrefAIDs, allAssayTotal).size() > 0)
-				summaryTotal.add(summaryAID);
+	public LongSet getTotalSummaryListPerCompoundAndProtein(LongSet compoundSummaries, Map<Long, LongSet> aidToSummariesMap,
+			LongSet allAssayTotal) {
+		return linkedSummaries(aidToSummariesMap, allAssayTotal).intersect(compoundSummaries);
+	}
+
+	private LongSet linkedSummaries(Map<Long, LongSet> aidToSummariesMap, LongSet aids) {
+		List<Long> summaries = new ArrayList<Long>();
+		for (int ii = 0; ii < aids.size(); ii++) {
+			LongSet linked = aidToSummariesMap.get(aids.get(ii));
+			if (linked != null) {
+				for (int jj = 0; jj < linked.size(); jj++)
+					summaries.add(linked.get(jj));
+			}
 		}
-		return summaryTotal;
+		return LongSet.of(summaries);
 	}
 
 	public long memUsage() {
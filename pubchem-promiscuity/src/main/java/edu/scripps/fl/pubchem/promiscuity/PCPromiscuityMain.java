@@ -17,15 +17,23 @@ package edu.scripps.fl.pubchem.promiscuity;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.apache.commons.collections.CollectionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import edu.emory.mathcs.backport.java.util.Arrays;
 import edu.scripps.fl.pubchem.promiscuity.model.CompoundPromiscuityInfo;
+import edu.scripps.fl.pubchem.promiscuity.model.JobProgress;
+import edu.scripps.fl.pubchem.promiscuity.model.LongSet;
 import edu.scripps.fl.pubchem.promiscuity.model.OverallListsAndMaps;
 import edu.scripps.fl.pubchem.promiscuity.model.PCPromiscuityParameters;
 import edu.scripps.fl.pubchem.promiscuity.model.PromiscuityCount;
@@ -54,150 +62,292 @@ public class PCPromiscuityMain {
 	}
 
 	public Map<Long, CompoundPromiscuityInfo> getCompoundPromiscuityInfoMap() throws Exception {
-		OverallListsAndMaps overall = setOverallVariables();
-		Map<Long, CompoundPromiscuityInfo> compoundMap = setCompoundsPromiscuityInfo(overall);
-		return compoundMap;
+		params.getProgress().setTotal(params.getIds().size());
+		OverallListsAndMaps overall = setOverallVariables(params.getIds());
+		ExecutorService countingPool = newCountingPool();
+		try {
+			return setCompoundsPromiscuityInfo(overall, params.getIds(), countingPool);
+		} finally {
+			countingPool.shutdownNow();
+		}
 	}
 
-	private Map<Long, CompoundPromiscuityInfo> setCompoundsPromiscuityInfo(OverallListsAndMaps overall) throws Exception {
-		PCPromiscuityFactory promFactory = new PCPromiscuityFactory();
-		Map<Long, CompoundPromiscuityInfo> compoundMap = promFactory.getCompoundsWithDescriptors(params.getIds(), params.getDatabase());
-		new FunctionalGroupDetectionFactory().calculateFunctionalGroups(compoundMap);
+	/**
+	 * Processes the ids streamingChunkSize at a time: each chunk is fetched,
+	 * counted and handed to the listener before the next one starts, so memory
+	 * use is bounded by the chunk size rather than by the number of ids. The
+	 * counts of a compound only depend on its own AIDs, so they are the same as
+	 * when all ids are processed at once.
+	 */
+	public void streamCompoundPromiscuityInfo(CompoundChunkListener listener) throws Exception {
+		List<Long> ids = params.getIds();
+		int chunkSize = params.getStreamingChunkSize();
+		params.getProgress().setTotal(ids.size());
+		if (chunkSize <= 0)
+			chunkSize = Math.max(1, ids.size());
+		ExecutorService countingPool = newCountingPool();
+		try {
+			for (int from = 0; from < ids.size(); from += chunkSize) {
+				params.getProgress().checkCancelled();
+				List<Long> chunk = new ArrayList<Long>(ids.subList(from, Math.min(ids.size(), from + chunkSize)));
+				log.info(String.format("Processing ids %s to %s of %s", from + 1, from + chunk.size(), ids.size()));
+				OverallListsAndMaps overall = setOverallVariables(chunk);
+				Map<Long, CompoundPromiscuityInfo> compoundMap = setCompoundsPromiscuityInfo(overall, chunk, countingPool);
+				listener.chunkCompleted(chunk, compoundMap);
+				log.info("Memory usage after chunk: " + new PCPromiscuityFactory().memUsage());
+			}
+		} finally {
+			countingPool.shutdownNow();
+		}
+	}
 
-		for (Long keyId : compoundMap.keySet()) {
+	/**
+	 * The pool of countingThreads threads a job matches and counts its
+	 * compounds on, shared by all of its chunks.
+	 */
+	private ExecutorService newCountingPool() {
+		return Executors.newFixedThreadPool(Math.max(1, params.getCountingThreads()));
+	}
 
-			log.info("Setting counts for compound: " + keyId);
+	/**
+	 * Counts every compound against the overall lists and maps. Each compound
+	 * is handed to the job's counting pool as soon as its ESummary
+	 * DocumentSummary is parsed, so functional group matching and counting
+	 * overlap with reading the rest of the document. Compounds only read the
+	 * (frozen) overall lists and maps.
+	 */
+	private Map<Long, CompoundPromiscuityInfo> setCompoundsPromiscuityInfo(final OverallListsAndMaps overall, List<Long> ids,
+			final ExecutorService executor) throws Exception {
+		final PCPromiscuityFactory promFactory = new PCPromiscuityFactory();
+		final FunctionalGroupDetectionFactory fgFactory = new FunctionalGroupDetectionFactory();
+		final FunctionalGroupRegistry fgRegistry = FunctionalGroupRegistry.getInstance();
+		final JobProgress progress = params.getProgress();
+
+		overall.freeze();
+		final List<Future<?>> futures = new ArrayList<Future<?>>(ids.size());
+		try {
+			Map<Long, CompoundPromiscuityInfo> compoundMap = promFactory.getCompoundsWithDescriptors(ids, params.getDatabase(),
+					new CompoundSummaryListener() {
+						public void compoundParsed(final CompoundPromiscuityInfo compound) {
+							progress.checkCancelled();
+							progress.increment(JobProgress.Stage.SUMMARIES);
+							futures.add(executor.submit(new Callable<Object>() {
+								public Object call() throws Exception {
+									progress.checkCancelled();
+									fgFactory.calculateFunctionalGroups(compound, fgRegistry);
+									progress.increment(JobProgress.Stage.FUNCTIONAL_GROUPS);
+									if (!compound.getOnHold())
+										setCompoundCounts(compound.getId(), compound, overall, promFactory);
+									progress.increment(JobProgress.Stage.COUNTING);
+									return null;
+								}
+							}));
+						}
+					});
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException ex) {
+					if (ex.getCause() instanceof Exception)
+						throw (Exception) ex.getCause();
+					throw ex;
+				}
+			}
+			// ids without a DocumentSummary are never handed to the pool
+			int unparsed = ids.size() - futures.size();
+			if (unparsed > 0) {
+				progress.add(JobProgress.Stage.SUMMARIES, unparsed);
+				progress.add(JobProgress.Stage.FUNCTIONAL_GROUPS, unparsed);
+				progress.add(JobProgress.Stage.COUNTING, unparsed);
+			}
+			log.info("Memory usage after compound map completely set up: " + promFactory.memUsage());
+			return compoundMap;
+		} finally {
+			// the pool outlives the chunk, so stop what a failure left behind
+			for (Future<?> future : futures)
+				future.cancel(true);
+		}
+	}
 
-			CompoundPromiscuityInfo compound = compoundMap.get(keyId);
-			if (compound.getOnHold())
-				continue;
+	private void setCompoundCounts(Long keyId, CompoundPromiscuityInfo compound, OverallListsAndMaps overall,
+			PCPromiscuityFactory promFactory) {
 
-			if (params.getDatabase().equalsIgnoreCase("pccompound")) {
-				compound.setCID(keyId);
-			} else {
-				ELinkResult result = (ELinkResult) overall.getSIDToCIDMap().get(keyId);
-				List<Long> CIDs = result.getIds("pccompound", "pcsubstance_pccompound_same");
-				if(CIDs != null && CIDs.size() > 0)
-					compound.setCID(CIDs.get(0));
-			}
+		log.info("Setting counts for compound: " + keyId);
+
+		if (params.getDatabase().equalsIgnoreCase("pccompound")) {
+			compound.setCID(keyId);
+		} else {
+			ELinkResult result = (ELinkResult) overall.getSIDToCIDMap().get(keyId);
+			List<Long> CIDs = result.getIds("pccompound", "pcsubstance_pccompound_same");
+			if(CIDs != null && CIDs.size() > 0)
+				compound.setCID(CIDs.get(0));
+		}
 
-		promFactory.addRuleOfFiveViolations(compound);
 		Map<String, PromiscuityCount<?>> countMap = compound.getCounts();
 		promFactory.addAllAssayCount(keyId, overall.getCompoundToAIDsMap(), params.getDatabase(), countMap);
 
+		promFactory.addAllProteinCount(overall, countMap);
+		promFactory.addAllNoProteinAIDCount(countMap, overall);
+
+		if (!params.getPerProteinMode()) {
+			promFactory.addProjectCountsPerCompound(overall, countMap);
+			promFactory.addAdvancedCounts(overall, countMap);
+		} else {
+			Map<Protein, Map<String, PromiscuityCount<?>>> perProteinCountMap = promFactory.allAssayCountPerProtein(countMap,
+					overall.getAidProteinMap());
 
-			promFactory.addAllProteinCount(overall, countMap);
-			promFactory.addAllNoProteinAIDCount(countMap, overall);
+			Map<String, PromiscuityCount<?>> noProteinCountMap = new HashMap<String, PromiscuityCount<?>>();
+			PromiscuityCount<?> allAssayNoProteinCount = countMap.get(PCPromiscuityFactory.noProteinsName);
+			noProteinCountMap.put(PCPromiscuityFactory.allAssayName, allAssayNoProteinCount);
+			noProteinCountMap.put(PCPromiscuityFactory.noProteinsName, allAssayNoProteinCount);
 
-			if (!params.getPerProteinMode()) {
+			if (!params.getSimpleMode()) {
 				promFactory.addProjectCountsPerCompound(overall, countMap);
-				promFactory.addAdvancedCounts(overall, countMap);
-			} else {
-				Map<Protein, Map<String, PromiscuityCount<?>>> perProteinCountMap = promFactory.allAssayCountPerProtein(countMap,
-						overall.getProteinAIDMap());
-
-				Map<String, PromiscuityCount<?>> noProteinCountMap = new HashMap<String, PromiscuityCount<?>>();
-				PromiscuityCount<Long> allAssayNoProteinCount = (PromiscuityCount<Long>) countMap
-						.get(PCPromiscuityFactory.noProteinsName);
-				noProteinCountMap.put(PCPromiscuityFactory.allAssayName, allAssayNoProteinCount);
-				noProteinCountMap.put(PCPromiscuityFactory.noProteinsName, allAssayNoProteinCount);
-
-				if (!params.getSimpleMode()) {
-					promFactory.addProjectCountsPerCompound(overall, countMap);
-					for (Protein keyProtein : perProteinCountMap.keySet()) {
-						Map<String, PromiscuityCount<?>> countMapPerProtein = perProteinCountMap.get(keyProtein);
-						promFactory.addAdvancedCountsPerProtein(overall, countMapPerProtein, countMap);
-						promFactory.addAllNoProteinAIDCount(countMapPerProtein, overall);
-						perProteinCountMap.put(keyProtein, countMapPerProtein);
-					}
-					promFactory.addAdvancedCountsPerProtein(overall, noProteinCountMap, countMap);
-					promFactory.addAllNoProteinAIDCount(noProteinCountMap, overall);
+				for (Protein keyProtein : perProteinCountMap.keySet()) {
+					Map<String, PromiscuityCount<?>> countMapPerProtein = perProteinCountMap.get(keyProtein);
+					promFactory.addAdvancedCountsPerProtein(overall, countMapPerProtein, countMap);
+					promFactory.addAllNoProteinAIDCount(countMapPerProtein, overall);
+					perProteinCountMap.put(keyProtein, countMapPerProtein);
 				}
-				compound.setPerProteinCounts(perProteinCountMap);
-				compound.setNoProteinCounts(noProteinCountMap);
+				promFactory.addAdvancedCountsPerProtein(overall, noProteinCountMap, countMap);
+				promFactory.addAllNoProteinAIDCount(noProteinCountMap, overall);
 			}
-
-			compound.setCounts(countMap);
-			compoundMap.put(compound.getId(), compound);
+			compound.setPerProteinCounts(perProteinCountMap);
+			compound.setNoProteinCounts(noProteinCountMap);
 		}
-		log.info("Memory usage after compound map completely set up: " + promFactory.memUsage());
-		return compoundMap;
-	}
 
-	private OverallListsAndMaps setOverallVariables() throws Exception {
-		OverallListsAndMaps overall = new OverallListsAndMaps();
-		String db = params.getDatabase();
+		compound.setCounts(countMap);
+	}
 
-		List<String> linkNames = Arrays.asList(new String[] { db + "_pcassay", db + "_pcassay_active" });
-		ELinkWebSession session = ELinkWebSession.newInstance(db, "pcassay", linkNames, params.getIds(), "");
-		log.info("Number of ids in compound to pcassay link request: " + String.valueOf(params.getIds().size()));
-		session.run();
-		overall.setCompoundToAIDsMap(session.getELinkResultsAsMap());
+	/**
+	 * Builds the overall lists and maps as a graph of Entrez requests. Every
+	 * request that only needs the input ids starts right away, and the rest
+	 * start as soon as the requests they depend on are done.
+	 */
+	@SuppressWarnings("unchecked")
+	private OverallListsAndMaps setOverallVariables(final List<Long> ids) throws Exception {
+		final String db = params.getDatabase();
+		final String shortDB = db.substring(2, db.length());
+		final String linkNeighbor = "pcassay_pcassay_neighbor_list";
+		final OverallListsAndMapsFactory overallFactory = new OverallListsAndMapsFactory();
+		overallFactory.setEsearchChunkSize(params.getEsearchChunkSize());
+		overallFactory.setProgress(params.getProgress());
+		boolean advanced = !params.getPerProteinMode() || !params.getSimpleMode();
+
+		TaskGraph graph = new TaskGraph(params.getProgress());
+
+		final TaskGraph.Node<Map<Long, Map<String, List<Long>>>> compoundLinks = graph.add("compound to AID links",
+				new Callable<Map<Long, Map<String, List<Long>>>>() {
+					public Map<Long, Map<String, List<Long>>> call() throws Exception {
+						Map<Long, Map<String, List<Long>>> links = overallFactory.compoundAIDLinks(ids, db);
+						params.getProgress().add(JobProgress.Stage.LINKS, ids.size());
+						return links;
+					}
+				});
+		final TaskGraph.Node<Set<Long>> allAIDs = graph.add("all AIDs", new Callable<Set<Long>>() {
+			public Set<Long> call() throws Exception {
+				return overallFactory.allLinkedIds(compoundLinks.get(), db + "_pcassay");
+			}
+		}, compoundLinks);
+		final TaskGraph.Node<List<Long>> proteinAIDs = graph.add("protein target AIDs", new Callable<List<Long>>() {
+			public List<Long> call() throws Exception {
+				return overallFactory.aidListEsearch(ids, "pcassay_protein_target[Filter]", shortDB);
+			}
+		});
+		TaskGraph.Node<Map<Long, List<Protein>>> aidProteins = graph.add("AID protein targets",
+				new Callable<Map<Long, List<Protein>>>() {
+					public Map<Long, List<Protein>> call() throws Exception {
+						return overallFactory.getAIDProteinMap(new ArrayList<Long>(proteinAIDs.get()));
+					}
+				}, proteinAIDs);
+
+		// all aids in each desired assay count category, and the summary
+		// aids related to the not ChEMBL aids
+		Map<String, TaskGraph.Node<List<Long>>> categorySearches = new LinkedHashMap<String, TaskGraph.Node<List<Long>>>();
+		TaskGraph.Node<ELinkWebSession> summaryLink = null;
+		TaskGraph.Node<Map<Long, List<Protein>>> summaryProteins = null;
+		TaskGraph.Node<List<Long>> mlpSummaries = null;
+		if (advanced) {
+			for (int ii = 0; ii < searchTerms.length; ii++) {
+				final String searchTerm = searchTerms[ii];
+				categorySearches.put(searchNames[ii], graph.add(searchNames[ii] + " search", new Callable<List<Long>>() {
+					public List<Long> call() throws Exception {
+						log.info("Advanced search: " + searchTerm);
+						return overallFactory.aidListEsearch(ids, searchTerm, shortDB);
+					}
+				}));
+			}
+			final TaskGraph.Node<List<Long>> chemblSearch = categorySearches.get(PCPromiscuityFactory.chemblName);
+			final TaskGraph.Node<ELinkWebSession> link = graph.add("summary neighbor links", new Callable<ELinkWebSession>() {
+				public ELinkWebSession call() throws Exception {
+					log.info("Number of ChEMBL AIDs: " + chemblSearch.get().size());
+					List<Long> notChEMBLAIDs = LongSet.of(allAIDs.get()).subtract(LongSet.of(chemblSearch.get())).toList();
+					ELinkWebSession session = ELinkWebSession.newInstance("pcassay", "pcassay",
+							Arrays.asList(new String[] { linkNeighbor }), notChEMBLAIDs, "summary[activityoutcomemethod]");
+					log.info("Number of ids in link request: " + String.valueOf(notChEMBLAIDs.size()));
+					session.run();
+					return session;
+				}
+			}, allAIDs, chemblSearch);
+			summaryLink = link;
+			summaryProteins = graph.add("summary protein targets", new Callable<Map<Long, List<Protein>>>() {
+				public Map<Long, List<Protein>> call() throws Exception {
+					return overallFactory.getAIDProteinMap(new ArrayList<Long>(link.get().getAllIds(linkNeighbor)));
+				}
+			}, link);
+			mlpSummaries = graph.add("MLP summaries", new Callable<List<Long>>() {
+				public List<Long> call() throws Exception {
+					return overallFactory.aidtoAIDListEsearch(new ArrayList<Long>(link.get().getAllIds(linkNeighbor)), searchTerms[0]);
+				}
+			}, link);
+		}
 
-		OverallListsAndMapsFactory overallFactory = new OverallListsAndMapsFactory();
+		TaskGraph.Node<Map<Long, List<ELinkResult>>> sidToCIDLinks = null;
+		if (db.equalsIgnoreCase("pcsubstance")) {
+			sidToCIDLinks = graph.add("SID to CID links", new Callable<Map<Long, List<ELinkResult>>>() {
+				public Map<Long, List<ELinkResult>> call() throws Exception {
+					ELinkWebSession session = ELinkWebSession.newInstance(db, "pccompound",
+							Arrays.asList(new String[] { "pcsubstance_pccompound_same" }), ids, "");
+					session.run();
+					return session.getELinkResultsAsMap();
+				}
+			});
+		}
 
+		graph.await();
+		graph.logTimings();
 
-		overall.setAllAIDs(session.getAllIds(db + "_pcassay"));
+		OverallListsAndMaps overall = new OverallListsAndMaps();
+		overall.setCompoundToAIDsMap(compoundLinks.get());
+		overall.setAllAIDs(LongSet.of(allAIDs.get()));
 		log.info("Number of All AIDs: " + overall.getAllAIDs().size());
 
-		String shortDB = db.substring(2, db.length());
-		List<Long> proteinAssays = overallFactory.aidListEsearch(params.getIds(), "pcassay_protein_target[Filter]", shortDB);
-		overall.setAllProteinAIDs(proteinAssays);
-		overall.setAidProteinMap(overallFactory.getAIDProteinMap(new ArrayList<Long>(proteinAssays)));
-
-		List<Long> noProteinAIDs = (List<Long>) CollectionUtils.subtract(overall.getAllAIDs(), proteinAssays);
-		overall.setAllNoProteinAIDs(noProteinAIDs);
+		overall.setAllProteinAIDs(LongSet.of(proteinAIDs.get()));
+		overall.setAidProteinMap(aidProteins.get());
+		overall.setAllNoProteinAIDs(overall.getAllAIDs().subtract(overall.getAllProteinAIDs()));
 
 		log.info("Number of aids returned from eSummary request: " + overall.getAidProteinMap().keySet().size());
 
-		if (params.getPerProteinMode()) {
-			overall.setAllProteins(overallFactory.allProteinSet(overall.getAidProteinMap()));
-			overall.setProteinAIDMap(overallFactory.proteinAIDMap(overall.getAidProteinMap(), overall.getAllProteins()));
-			if (!params.getSimpleMode()) 
-				advancedCounts(overallFactory, overall, session, shortDB);
+		if (advanced) {
+			Map<String, LongSet> overallTotalAIDMap = new HashMap<String, LongSet>(searchNames.length);
+			for (Map.Entry<String, TaskGraph.Node<List<Long>>> entry : categorySearches.entrySet())
+				overallTotalAIDMap.put(entry.getKey(), LongSet.of(entry.getValue().get()));
+			overall.setAdvancedCountTotalAIDMap(overallTotalAIDMap);
+
+			ELinkWebSession session = summaryLink.get();
+			overall.setAllSummaries(LongSet.of(session.getAllIds(linkNeighbor)));
+			Map<Long, List<ELinkResult>> aidToSummaryMap = session.getELinkResultsAsMap();
+			overall.setSummaryToAIDsMap(overallFactory.getSummaryToAIDsMap(aidToSummaryMap));
+			overall.setAidToSummariesMap(overallFactory.getAIDToSummariesMap(aidToSummaryMap));
+			overall.setSummaryProteinMap(summaryProteins.get());
+			overall.setMlpSummaries(LongSet.of(mlpSummaries.get()));
 		}
-		else
-			advancedCounts(overallFactory, overall, session, shortDB);
 
-		if (db.equalsIgnoreCase("pcsubstance")) {
-			session = ELinkWebSession.newInstance(db, "pccompound", Arrays.asList(new String[] { "pcsubstance_pccompound_same" }),
-					params.getIds(), "");
-			session.run();
-			overall.setSIDToCIDMap(session.getELinkResultsAsMap());
-		}
+		if (sidToCIDLinks != null)
+			overall.setSIDToCIDMap(sidToCIDLinks.get());
 
 		log.info("Set up all overall lists");
 		return overall;
 	}
-	
-	private void advancedCounts(OverallListsAndMapsFactory overallFactory, OverallListsAndMaps overall, ELinkWebSession session, String shortDB) throws Exception{
-		// all aids in each desired assay count category
-		Map<String, List<Long>> overallTotalAIDMap = new HashMap<String, List<Long>>(searchNames.length);
-		for (int ii = 0; ii < searchTerms.length; ii++) {
-			String searchTerm = searchTerms[ii];
-			log.info("Advanced search: " + searchTerm);
-			List<Long> list = overallFactory.aidListEsearch(params.getIds(), searchTerm, shortDB);
-			overallTotalAIDMap.put(searchNames[ii], list);
-		}
-		overall.setAdvancedCountTotalAIDMap(overallTotalAIDMap);
-
-		// eLink request for summary aids related to not ChEMBL aids
-		String linkNeighbor = "pcassay_pcassay_neighbor_list";
-
-		log.info("Number of ChEMBL AIDs: " + overall.getAdvancedCountTotalAIDMap().get(PCPromiscuityFactory.chemblName).size());
-
-		List<Long> notChEMBLAIDs = (List<Long>) CollectionUtils.subtract(overall.getAllAIDs(), overall.getAdvancedCountTotalAIDMap()
-				.get(PCPromiscuityFactory.chemblName));
-		session = ELinkWebSession.newInstance("pcassay", "pcassay", Arrays.asList(new String[] { linkNeighbor }), notChEMBLAIDs,
-				"summary[activityoutcomemethod]");
-
-		log.info("Number of ids in link request: " + String.valueOf(notChEMBLAIDs.size()));
-		session.run();
-		overall.setAllSummaries(session.getAllIds(linkNeighbor));
-		overall.setSummaryProteinMap(overallFactory.getAIDProteinMap(new ArrayList<Long>(overall.getAllSummaries())));
-		Map<Long, List<ELinkResult>> aidToSummaryMap = session.getELinkResultsAsMap();
-		overall.setSummaryToAIDsMap(overallFactory.getSummaryToAIDsMap(aidToSummaryMap));
-		overall.setMlpSummaries(overallFactory.aidtoAIDListEsearch(new ArrayList<Long>(overall.getAllSummaries()), searchTerms[0]));
-	}
 
 }
@@ -16,345 +16,221 @@
 package edu.scripps.fl.pubchem.promiscuity;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.lang.StringUtils;
-import org.dom4j.Document;
-import org.dom4j.Element;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import edu.scripps.fl.pubchem.promiscuity.model.CategorizedFunctionalGroups;
+import edu.scripps.fl.pubchem.promiscuity.model.CompoundDescriptors;
 import edu.scripps.fl.pubchem.promiscuity.model.CompoundPromiscuityInfo;
-import edu.scripps.fl.pubchem.promiscuity.model.FunctionalGroup;
+import edu.scripps.fl.pubchem.promiscuity.model.JobProgress;
 import edu.scripps.fl.pubchem.promiscuity.model.PCPromiscuityParameters;
-import edu.scripps.fl.pubchem.promiscuity.model.PromiscuityCount;
-import edu.scripps.fl.pubchem.promiscuity.model.Protein;
-import edu.scripps.fl.rhinoproject.JSProcessor;
 
-public class PCPromiscuityOutput {
+/**
+ * Writes the results of a job to any number of {@link PromiscuityResultWriter}s
+ * in a single pass over the compounds. The functional group names and
+ * descriptors of each compound are worked out once into a
+ * {@link CompoundResult}, which is then queued to every writer. Each writer
+ * runs on a thread of its own, so the XML and CSV files are written at the
+ * same time, and at most {@link #MAX_PENDING} compounds wait for a writer that
+ * falls behind.
+ */
+public class PCPromiscuityOutput implements CompoundChunkListener {
 
 	private static final Logger log = LoggerFactory.getLogger(PCPromiscuityOutput.class);
-	
-	private JSProcessor jsp = null;
+
+	public static final int MAX_PENDING = 1000;
 
 	public static final String[] names = new String[] { PCPromiscuityFactory.allAssayName, PCPromiscuityFactory.allProjectsName,
 			PCPromiscuityFactory.mlpAssaysName, PCPromiscuityFactory.mlpProjectsNames, PCPromiscuityFactory.chemblName,
 			PCPromiscuityFactory.noProteinsName, PCPromiscuityFactory.allProteinsName, PCPromiscuityFactory.luciferaseName,
 			PCPromiscuityFactory.betaLactamaseName, PCPromiscuityFactory.fluorescentName };
 
-	public static final String[] descriptorNames = { "MinAC", "MaxAC", "MinTC", "MaxTC", PCPromiscuityFactory.cSmiles,
-			PCPromiscuityFactory.mWeight, PCPromiscuityFactory.xLogP, PCPromiscuityFactory.hBondDonor, PCPromiscuityFactory.hBondAcceptor,
-			"TPSA", "Complexity", "RotatableBondCount", "MolecularFormula", "TotalFormalCharge", "HeavyAtomCount", "AtomChiralCount",
-			"AtomChiralDefCount", "AtomChiralUndefCount", "BondChiralCount", "BondChiralDefCount", "BondChiralUndefCount",
-			"IsotopeAtomCount", "CovalentUnitCount", "TautomerCount", PCPromiscuityFactory.ruleFiveName };
+	public static final String[] descriptorNames = CompoundDescriptors.NAMES;
 	public static final String[] functionalGroupCategories = {"PAINS_A", "PAINS_B", "PAINS_C"};
 
+	// set between open and close
+	private List<Sink> sinks = new ArrayList<Sink>();
+	private JobProgress progress;
+
 	public void compoundPromiscuityToCSV(Map<Long, CompoundPromiscuityInfo> map, PCPromiscuityParameters params, File file)
 			throws Exception {
-		String[] countColumns = names;
-		if (params.getSimpleMode())
-			countColumns = new String[] { names[0] };
-		String[] descriptorColumns = descriptorNames;
-		List<Long> ids = params.getIds();
-		Writer out = new OutputStreamWriter(new FileOutputStream(file));
-
-		if (params.getDatabase().equals("pcsubstance"))
-			out.write("SID,");
-		out.write("CID");
-		for(String fgCat: functionalGroupCategories){
-			out.write("," + fgCat);
-		}
-		out.write(",PossibleFalseAromaticityDetection");
-		for (String cc : descriptorColumns) {
-			out.write("," + cc);
-		}
-		if (params.getPerProteinMode())
-			out.write(",Protein");
-		for (String cc : countColumns) {
-			out.write("," + cc + ",");
-		}
-		out.write("\n,");
-		printExtraCommas(params, descriptorColumns, out);
-		for (String cc : countColumns) {
-			out.write(",Active,Total");
-		}
-		out.write("\n");
-		for (Long id : ids) {
-			out.write(id.toString());
-
-			CompoundPromiscuityInfo cpInfo = map.get(id);
-			if (cpInfo == null) {
-				out.write(", unable to get compound information.");
-				out.write("\n");
-				continue;
-			}
-			if (cpInfo.getOnHold()) {
-				out.write(", On Hold");
-				out.write("\n");
-				continue;
-			}
-
-			printDescriptors(params, cpInfo, out, descriptorColumns);
+		write(map, params, new CSVResultWriter(file));
+	}
 
-			if (!params.getPerProteinMode()) {
-				Map<String, PromiscuityCount<?>> counts = cpInfo.getCounts();
-				printCSVCount(counts, countColumns, out);
-			} else {
-				Map<Protein, Map<String, PromiscuityCount<?>>> proteinCounts = cpInfo.getPerProteinCounts();
-				int count = 0;
-				for (Entry<Protein, Map<String, PromiscuityCount<?>>> proteinCount : proteinCounts.entrySet()) {
-					if (count > 0)
-						printExtraCommas(params, descriptorColumns, out);
-					out.write(",\"" + proteinCount.getKey().getName() + "\"");
-					printCSVCount(proteinCount.getValue(), countColumns, out);
-					count = count + 1;
-				}
-				Map<String, PromiscuityCount<?>> noProteinCounts = cpInfo.getNoProteinCounts();
-				if (count > 0)
-					printExtraCommas(params, descriptorColumns, out);
-				out.write(", No Proteins");
-				printCSVCount(noProteinCounts, countColumns, out);
-			}
-		}
-		out.close();
+	public void compoundPromiscuityToXML(Map<Long, CompoundPromiscuityInfo> map, PCPromiscuityParameters params, File file)
+			throws Exception {
+		write(map, params, new XMLResultWriter(file));
+		log.info("Finished writing xml to: " + file.getAbsolutePath());
 	}
 
-	private void printExtraCommas(PCPromiscuityParameters params, String[] descriptorColumns, Writer out) throws IOException {
-		if (params.getDatabase().equals("pcsubstance"))
-			out.write(",");
-		for(String fg: functionalGroupCategories){
-			out.write(",");
-		}
-		for (String cc : descriptorColumns) {
-			out.write(",");
-		}
-		if (params.getPerProteinMode())
-			out.write(",");
+	/**
+	 * Writes the XML and CSV results in one pass over the compounds.
+	 */
+	public void compoundPromiscuityToFiles(Map<Long, CompoundPromiscuityInfo> map, PCPromiscuityParameters params, File xmlFile,
+			File csvFile) throws Exception {
+		write(map, params, new XMLResultWriter(xmlFile), new CSVResultWriter(csvFile));
 	}
 
-	private void printDescriptors(PCPromiscuityParameters params, CompoundPromiscuityInfo cpInfo, Writer out, String[] descriptorColumns)
-			throws IOException {
-		if (params.getDatabase().equals("pcsubstance")){
-			if(cpInfo.getCID() != null)
-				out.write("," + cpInfo.getCID());
-			else
-				out.write(",");
-		}
-		
-		Map<String, Object> descriptors = cpInfo.getDescriptors();
-		Map<String, CategorizedFunctionalGroups> categorizedFGMap = cpInfo.getCategorizedFunctionalGroupsMap();
-		for(String category: functionalGroupCategories){
-			CategorizedFunctionalGroups cFGs = categorizedFGMap.get(category);
-			if(cFGs != null){
-				out.write(",\"");
-				List<FunctionalGroup> fgs = cFGs.getFunctionalGroups();
-				List<String> groups = new ArrayList<String>();
-				for (FunctionalGroup group : fgs) {
-					groups.add(group.getName());
-				}
-				out.write(StringUtils.join(groups, ","));
-				out.write("\"");
-			}
-			else{
-				out.write(",");
-			}
-		}
-		
-		if(cpInfo.isPossibleFalseAromaticityDetection())
-        	out.write(",true");
-		else
-			out.write(",");
-        
-		for (String cc : descriptorColumns) {
-			if(descriptors.get(cc) !=null)
-				out.write(", " + descriptors.get(cc));
-			else
-				out.write(", ");
+	public void write(Map<Long, CompoundPromiscuityInfo> map, PCPromiscuityParameters params, PromiscuityResultWriter... writers)
+			throws Exception {
+		open(params, writers);
+		try {
+			for (Long id : params.getIds())
+				write(id, map.get(id));
+		} finally {
+			close();
 		}
 	}
 
-	private void printCSVCount(Map<String, PromiscuityCount<?>> counts, String[] countColumns, Writer out) throws IOException {
+	/**
+	 * Starts writing the XML and CSV results one chunk of compounds at a time.
+	 * Each {@link #chunkCompleted} call appends the chunk's compounds to both
+	 * files, and {@link #close()} finishes them, so only one chunk is held in
+	 * memory.
+	 */
+	public void open(PCPromiscuityParameters params, File xmlFile, File csvFile) throws Exception {
+		open(params, new XMLResultWriter(xmlFile), new CSVResultWriter(csvFile));
+	}
 
-		for (String cc : countColumns) {
-			PromiscuityCount<?> count = counts.get(cc);
-			if (count != null)
-				out.write("," + count.getActive().size() + "," + count.getTotal().size());
-			else
-				out.write(",");
+	/**
+	 * Starts every writer. Compounds are then passed in with
+	 * {@link #write(Long, CompoundPromiscuityInfo)} or {@link #chunkCompleted},
+	 * and {@link #close()} must be called to finish the outputs.
+	 */
+	public void open(PCPromiscuityParameters params, PromiscuityResultWriter... writers) throws Exception {
+		sinks = new ArrayList<Sink>();
+		progress = params.getProgress();
+		for (PromiscuityResultWriter writer : writers) {
+			Sink sink = new Sink(writer);
+			sinks.add(sink);
+			sink.start(params);
 		}
-		out.write("\n");
 	}
 
-	public void compoundPromiscuityToXML(Map<Long, CompoundPromiscuityInfo> map, PCPromiscuityParameters params, File file)
-			throws Exception {
-	    
-	    jsp = new JSProcessor();
-	    jsp.init();
-        try{
-                        
-            InputStream is = getClass().getResourceAsStream("/compress.txt");
-            jsp.setCodeSource(new InputStreamReader(is));
-            
-            String[] descriptorColumns = descriptorNames;
-            List<Long> ids = params.getIds();
-
-            URL url = getClass().getClassLoader().getResource("Result.xml");
-            Document doc = new XMLDocument().readDocFromURL(url);
-
-            Element root = doc.getRootElement();
-            String db = params.getDatabase();
-            String idString = "SID";
-            if (db.equalsIgnoreCase("pccompound"))
-                idString = "CID";
-            for (Long id : ids) {
-                Element result = root.addElement("Result");
-                result.addElement(idString).addText(id.toString());
+	public void write(Long id, CompoundPromiscuityInfo cpInfo) throws Exception {
+		if (progress != null)
+			progress.checkCancelled();
+		CompoundResult result = new CompoundResult(id, cpInfo);
+		for (Sink sink : sinks)
+			sink.write(result);
+		if (progress != null)
+			progress.increment(JobProgress.Stage.OUTPUT);
+	}
 
-                CompoundPromiscuityInfo cpInfo = map.get(id);
-                if (cpInfo == null)
-                    result.addElement("NoResults").addText("Error Processing this compound.");
-                else {
-                    if (cpInfo.getOnHold())
-                        result.addElement("OnHold").addText("True");
-                    else {
-                        if (db.equalsIgnoreCase("pcsubstance")){
-                            Element CIDe = result.addElement("CID");
-                            if(cpInfo.getCID() != null)
-                                CIDe.addText(cpInfo.getCID().toString());
-                        }
+	public void chunkCompleted(List<Long> ids, Map<Long, CompoundPromiscuityInfo> map) throws Exception {
+		for (Long id : ids)
+			write(id, map.get(id));
+		for (Sink sink : sinks)
+			sink.flush();
+	}
 
-                        Map<String, Object> descriptors = cpInfo.getDescriptors();
-                        Map<String, CategorizedFunctionalGroups> categorizedFGMap = cpInfo.getCategorizedFunctionalGroupsMap();
+	/**
+	 * Waits for every writer to write its queued compounds and finish, then
+	 * rethrows the first exception any of them failed with.
+	 */
+	public void close() throws Exception {
+		for (Sink sink : sinks)
+			sink.finish();
+		Exception error = null;
+		for (Sink sink : sinks) {
+			Exception ex = sink.await();
+			if (error == null)
+				error = ex;
+		}
+		sinks = new ArrayList<Sink>();
+		if (error != null)
+			throw error;
+	}
 
-                        Element descriptorsE = result.addElement("Descriptors");
-                        for(String category: functionalGroupCategories){
-                        	Element fgCategoryE = descriptorsE.addElement(category);
-                			CategorizedFunctionalGroups cFGs = categorizedFGMap.get(category);
-                			if(cFGs != null){
-                				List<FunctionalGroup> fgs = cFGs.getFunctionalGroups();
-                				List<String> groups = new ArrayList<String>();
-                				for (FunctionalGroup group : fgs) {
-                					groups.add(group.getName());
-                				}
-                				fgCategoryE.addText(StringUtils.join(groups, ", "));
-                			}
-                        }
-                        Element possibleFalse = descriptorsE.addElement("PossibleFalseAromaticityDetection");
-                        if(cpInfo.isPossibleFalseAromaticityDetection())
-                        	possibleFalse.addText("true");
-                        
-                        for (String cc : descriptorColumns) {
-                            Element descriptorCC = descriptorsE.addElement(StringUtils.remove(cc, " "));
-                            if(descriptors.get(cc) != null)
-                            	descriptorCC.addText(descriptors.get(cc).toString());
-                        }
+	/**
+	 * A writer and the single thread that calls it. Once the writer fails the
+	 * remaining compounds are skipped, but it is still finished so its file is
+	 * closed.
+	 */
+	private static class Sink {
 
-                        Element proteinsE = result.addElement("Proteins");
-                        if (params.getPerProteinMode()) {
-                            Map<Protein, Map<String, PromiscuityCount<?>>> proteinCounts = cpInfo.getPerProteinCounts();
-                            Set<Protein> proteins = proteinCounts.keySet();
-                            for (Protein protein : proteins) {
-                                Element proteinE = proteinsE.addElement("Protein");
-                                proteinE.addElement("Name").addText(protein.getName());
-                                Element promiscuityCountsE = proteinE.addElement("PromiscuityCounts");
-                                addCounts(promiscuityCountsE, proteinCounts.get(protein), id, db);
-                            }
-                            Map<String, PromiscuityCount<?>> noProteinCounts = cpInfo.getNoProteinCounts();
-                            Element noProtein = proteinsE.addElement("Protein");
-                            noProtein.addElement("Name").addText("");
-                            Element noProteinCountsE = noProtein.addElement("PromiscuityCounts");
-                            addCounts(noProteinCountsE, noProteinCounts, id, db);
-                            root.addAttribute("format", "protein");
-                        } else {
-                            Map<String, PromiscuityCount<?>> counts = cpInfo.getCounts();
-                            Element allProteins = proteinsE.addElement("Protein");
-                            allProteins.addElement("Name").addText("All Proteins");
-                            Element allProteinCountsE = allProteins.addElement("PromiscuityCounts");
-                            addCounts(allProteinCountsE, counts, id, db);
-                            root.addAttribute("format", "compound");
-                        }
-                    }
-                }
+		private final PromiscuityResultWriter writer;
+		private final ExecutorService executor = Executors.newSingleThreadExecutor();
+		private final Semaphore pending = new Semaphore(MAX_PENDING);
+		private volatile Exception error;
 
-            }
-            new XMLDocument().write(doc, file);
-            log.info("Finished writing xml to: " + file.getAbsolutePath());
-        }
-        finally{
-            jsp.exit();
-        }   
-	}
+		Sink(PromiscuityResultWriter writer) {
+			this.writer = writer;
+		}
 
-	private void addCounts(Element element, Map<String, PromiscuityCount<?>> counts, Long id, String db) throws Exception {
-	    	    
-		String[] countColumns = names;
-		for (String cc : countColumns) {
-			PromiscuityCount<?> count = counts.get(cc);
-			if (count != null) {
-				Element countElem = element.addElement(cc);
-				Element totalE = countElem.addElement("Total");
-				String value = "0";
+		void start(final PCPromiscuityParameters params) throws InterruptedException {
+			submit(new Step() {
+				public void run() throws Exception {
+					writer.start(params);
+				}
+			});
+		}
 
-				List<?> totalCount = count.getTotal();
-				if (totalCount != null)
-					value = String.valueOf(totalCount.size());
-				totalE.addElement("Count").addText(value);
-				addCountElementURL(count, totalCount, totalE, id, db);
+		void write(final CompoundResult result) throws InterruptedException {
+			submit(new Step() {
+				public void run() throws Exception {
+					writer.write(result);
+				}
+			});
+		}
 
-				Element activeE = countElem.addElement("Active");
-				List<?> activeCount = count.getActive();
+		void flush() throws InterruptedException {
+			submit(new Step() {
+				public void run() throws Exception {
+					writer.flush();
+				}
+			});
+		}
 
-				if (activeCount != null)
-					value = String.valueOf(activeCount.size());
-				else
-					value = "0";
+		void finish() {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						writer.finish();
+					} catch (Exception ex) {
+						if (error == null)
+							error = ex;
+					}
+				}
+			});
+			executor.shutdown();
+		}
 
-				activeE.addElement("Count").addText(value);
-				addCountElementURL(count, activeCount, activeE, id, db);
-			}
+		Exception await() throws InterruptedException {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES))
+				log.info("Waiting for " + writer.getClass().getSimpleName() + " to finish");
+			return error;
 		}
-	}
 
-	private void addCountElementURL(PromiscuityCount<?> count, List<?> list, Element elem, Long id, String db) throws Exception {
-		if (list.size() > 0) {
-			String urlS;
-			if (count.getName().equals(PCPromiscuityFactory.allProteinsName)) {
-				List<Long> proteins = new ArrayList<Long>();
-				for (Object protein : list) {
-					proteins.add(((Protein) protein).getGi());
+		private void submit(final Step step) throws InterruptedException {
+			// a writer that has failed only gets finished
+			if (error != null)
+				return;
+			pending.acquire();
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						if (error == null)
+							step.run();
+					} catch (Exception ex) {
+						error = ex;
+					} finally {
+						pending.release();
+					}
 				}
-				// urlS = "http://www.ncbi.nlm.nih.gov/protein/" +
-				// StringUtils.join(proteins, ",");
-				urlS = "http://pubchem.ncbi.nlm.nih.gov/assay/assaytool.cgi?q=tgt&gi=%s&%sid=%s";
-				if (db.equalsIgnoreCase("pcsubstance"))
-					urlS = String.format(urlS, StringUtils.join(proteins, ","), "s", id);
-				else
-					urlS = String.format(urlS, StringUtils.join(proteins, ","), "c", id);
-			} else if (count.getName().contains("Project")) {
-				urlS = "http://www.ncbi.nlm.nih.gov/sites/entrez?db=pcassay&term=" + StringUtils.join(list, ",");
-			} else {
-				urlS = "http://pubchem.ncbi.nlm.nih.gov/assay/assay.cgi?p=datatable&q=sidsr&qfile=&service=&similarity=&cmpdv=%s&AIDlist=%s&%sIDlist=%s";
-				if (db.equalsIgnoreCase("pcsubstance"))
-					urlS = String.format(urlS, "sub", StringUtils.join(list, ","), "S", id);
-				else
-					urlS = String.format(urlS, "cmpd", StringUtils.join(list, ","), "C", id);
-			}
-			// Compress URL using deflator and base64 encoding. URL will be decompress on the client side.
-			urlS = jsp.deflate(urlS);
-			elem.addElement("URL").addText(urlS);
+			});
 		}
 	}
 
+	private interface Step {
+		void run() throws Exception;
+	}
+
 }
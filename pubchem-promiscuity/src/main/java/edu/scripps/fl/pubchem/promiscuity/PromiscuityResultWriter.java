@@ -0,0 +1,44 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import edu.scripps.fl.pubchem.promiscuity.model.PCPromiscuityParameters;
+
+/**
+ * One output format of the results. {@link PCPromiscuityOutput} walks the
+ * compounds once and hands every writer the same {@link CompoundResult}s in
+ * input order. Each writer is called from a single thread of its own, so
+ * implementations need not be thread safe.
+ */
+public interface PromiscuityResultWriter {
+
+	void start(PCPromiscuityParameters params) throws Exception;
+
+	void write(CompoundResult result) throws Exception;
+
+	/**
+	 * Pushes the results written so far to the underlying file, called once per
+	 * chunk in streaming mode.
+	 */
+	void flush() throws Exception;
+
+	/**
+	 * Finishes the output and releases the file. Called even if start or write
+	 * failed.
+	 */
+	void finish() throws Exception;
+
+}
@@ -0,0 +1,162 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.scripps.fl.pubchem.promiscuity.model.JobProgress;
+
+/**
+ * A small graph of named tasks with declared dependencies. {@link #await()}
+ * starts every task on a pool with one thread per node and each task waits for
+ * its dependencies, so every node runs as soon as its inputs are ready. Start
+ * and end times are recorded per node so the critical path can be logged.
+ */
+public class TaskGraph {
+
+	private static final Logger log = LoggerFactory.getLogger(TaskGraph.class);
+
+	private final JobProgress progress;
+	private final List<Node<?>> nodes = new ArrayList<Node<?>>();
+	private final long createdTime = System.currentTimeMillis();
+
+	public TaskGraph() {
+		this(null);
+	}
+
+	/**
+	 * A graph whose nodes do not start once the job the progress belongs to
+	 * is cancelled.
+	 */
+	public TaskGraph(JobProgress progress) {
+		this.progress = progress;
+	}
+
+	public <T> Node<T> add(String name, Callable<T> task, Node<?>... dependencies) {
+		Node<T> node = new Node<T>(name, task, dependencies, progress);
+		nodes.add(node);
+		return node;
+	}
+
+	/**
+	 * Runs every node and waits for them to finish. If one fails the rest are
+	 * cancelled and its exception is rethrown.
+	 */
+	public void await() throws Exception {
+		if (nodes.isEmpty())
+			return;
+		ExecutorService executor = Executors.newFixedThreadPool(nodes.size());
+		try {
+			for (Node<?> node : nodes)
+				executor.execute(node.future);
+			for (Node<?> node : nodes)
+				node.get();
+		} catch (Exception ex) {
+			for (Node<?> node : nodes)
+				node.future.cancel(true);
+			throw ex;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	public void logTimings() {
+		Node<?> last = null;
+		for (Node<?> node : nodes) {
+			log.info(String.format("Task %s: started at %s ms, took %s ms", node.name, node.startTime - createdTime, node.endTime
+					- node.startTime));
+			if (last == null || node.endTime > last.endTime)
+				last = node;
+		}
+		// walk back from the last node to finish through the dependency that
+		// finished last
+		LinkedList<String> path = new LinkedList<String>();
+		while (last != null) {
+			path.addFirst(last.name);
+			Node<?> previous = null;
+			for (Node<?> dependency : last.dependencies) {
+				if (previous == null || dependency.endTime > previous.endTime)
+					previous = dependency;
+			}
+			last = previous;
+		}
+		log.info("Critical path: " + path);
+	}
+
+	public static class Node<T> {
+
+		private final String name;
+		private final Node<?>[] dependencies;
+		private final FutureTask<T> future;
+		private volatile long startTime, endTime;
+
+		private Node(String name, final Callable<T> task, Node<?>[] dependencies, final JobProgress progress) {
+			this.name = name;
+			this.dependencies = dependencies;
+			this.future = new FutureTask<T>(new Callable<T>() {
+				public T call() throws Exception {
+					for (Node<?> dependency : Node.this.dependencies)
+						dependency.get();
+					if (progress != null)
+						progress.checkCancelled();
+					startTime = System.currentTimeMillis();
+					try {
+						return task.call();
+					} finally {
+						endTime = System.currentTimeMillis();
+					}
+				}
+			});
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getStartTime() {
+			return startTime;
+		}
+
+		public long getEndTime() {
+			return endTime;
+		}
+
+		/**
+		 * Waits for the node and returns its result, rethrowing the exception
+		 * the task (or one of its dependencies) failed with.
+		 */
+		public T get() throws Exception {
+			try {
+				return future.get();
+			} catch (ExecutionException ex) {
+				if (ex.getCause() instanceof Exception)
+					throw (Exception) ex.getCause();
+				throw ex;
+			}
+		}
+	}
+
+}
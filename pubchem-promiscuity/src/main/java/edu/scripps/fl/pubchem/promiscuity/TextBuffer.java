@@ -0,0 +1,163 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+/**
+ * Reusable character buffer for the SAX handlers. Element text is appended
+ * into one growing array that is reset per element, and numbers and dates
+ * are parsed straight from the characters without building a String.
+ */
+class TextBuffer {
+
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int ii = 1; ii < POWERS_OF_TEN.length; ii++)
+			POWERS_OF_TEN[ii] = POWERS_OF_TEN[ii - 1] * 10;
+	}
+
+	private char[] chars = new char[256];
+	private int length = 0;
+
+	public void reset() {
+		length = 0;
+	}
+
+	public void append(char[] ch, int start, int len) {
+		if (length + len > chars.length) {
+			char[] larger = new char[Math.max(chars.length * 2, length + len)];
+			System.arraycopy(chars, 0, larger, 0, length);
+			chars = larger;
+		}
+		System.arraycopy(ch, start, chars, length, len);
+		length += len;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Parses the (whitespace trimmed) text as a long.
+	 * 
+	 * @throws NumberFormatException
+	 *             if it is not a plain decimal integer
+	 */
+	public long parseLong() {
+		int ii = trimStart(), end = trimEnd();
+		boolean negative = ii < end && chars[ii] == '-';
+		if (negative || (ii < end && chars[ii] == '+'))
+			ii++;
+		if (ii == end || end - ii > 18)
+			return Long.parseLong(toString().trim());
+		long value = 0;
+		for (; ii < end; ii++) {
+			int digit = chars[ii] - '0';
+			if (digit < 0 || digit > 9)
+				throw new NumberFormatException("For input string: \"" + toString() + "\"");
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	public boolean isBlank() {
+		return trimStart() == length;
+	}
+
+	/**
+	 * Parses the (whitespace trimmed) text as a double. Plain decimals with up
+	 * to 15 significant digits are computed directly from the characters, which
+	 * is exact since both the digits and the power of ten are exactly
+	 * representable; anything else goes through Double.parseDouble.
+	 */
+	public double parseDouble() {
+		int ii = trimStart(), end = trimEnd();
+		boolean negative = ii < end && chars[ii] == '-';
+		if (negative || (ii < end && chars[ii] == '+'))
+			ii++;
+		long mantissa = 0;
+		int digits = 0, fraction = -1;
+		boolean anyDigit = false;
+		for (; ii < end; ii++) {
+			char ch = chars[ii];
+			if (ch >= '0' && ch <= '9') {
+				mantissa = mantissa * 10 + (ch - '0');
+				anyDigit = true;
+				if (mantissa > 0)
+					digits++;
+				if (fraction >= 0)
+					fraction++;
+			} else if (ch == '.' && fraction < 0)
+				fraction = 0;
+			else
+				break;
+		}
+		if (ii < end || digits > 15 || !anyDigit || fraction > 22)
+			return Double.parseDouble(toString().trim());
+		double value = fraction > 0 ? mantissa / POWERS_OF_TEN[fraction] : mantissa;
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parses a yyyy/MM/dd date as the number yyyyMMdd, which orders the same
+	 * way as the dates. Like SimpleDateFormat.parse, anything after the day
+	 * (e.g. a time) is ignored. Returns -1 if the text does not start with
+	 * such a date.
+	 */
+	public int parseDate() {
+		int ii = trimStart(), end = trimEnd();
+		int date = 0, field = 0, value = 0, digits = 0;
+		for (; ii <= end; ii++) {
+			char ch = ii < end ? chars[ii] : '/';
+			if (ch >= '0' && ch <= '9') {
+				value = value * 10 + (ch - '0');
+				digits++;
+			} else if (digits > 0 && (ch == '/' || field == 2)) {
+				if (field == 1 && (value < 1 || value > 12))
+					return -1;
+				if (field == 2 && (value < 1 || value > 31))
+					return -1;
+				date = date * 100 + value;
+				if (++field == 3)
+					return date;
+				value = 0;
+				digits = 0;
+			} else
+				return -1;
+		}
+		return -1;
+	}
+
+	private int trimStart() {
+		int ii = 0;
+		while (ii < length && chars[ii] <= ' ')
+			ii++;
+		return ii;
+	}
+
+	private int trimEnd() {
+		int end = length;
+		while (end > 0 && chars[end - 1] <= ' ')
+			end--;
+		return end;
+	}
+
+	@Override
+	public String toString() {
+		return new String(chars, 0, length);
+	}
+
+}
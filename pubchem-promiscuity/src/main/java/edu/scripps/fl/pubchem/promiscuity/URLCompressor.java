@@ -0,0 +1,86 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the assay URLs of the XML results the way the client side
+ * inflate function in javascript/utils.js reads them: raw deflate (no zlib
+ * header or checksum) of the URL's bytes, then standard Base64 with padding.
+ * Deflaters are pooled since each one holds native memory that is costly to
+ * set up for every URL.
+ */
+public class URLCompressor {
+
+	private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+	private static final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+
+	private URLCompressor() {
+	}
+
+	public static String compress(String url) {
+		byte[] input;
+		try {
+			// one byte per character, as the JavaScript inflate returns them
+			input = url.getBytes("ISO-8859-1");
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		}
+		Deflater deflater = deflaters.poll();
+		if (deflater == null)
+			deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.setInput(input);
+			deflater.finish();
+			byte[] buffer = new byte[input.length + input.length / 1000 + 64];
+			int length = 0;
+			while (!deflater.finished()) {
+				if (length == buffer.length) {
+					byte[] larger = new byte[buffer.length * 2];
+					System.arraycopy(buffer, 0, larger, 0, length);
+					buffer = larger;
+				}
+				length += deflater.deflate(buffer, length, buffer.length - length);
+			}
+			return base64(buffer, length);
+		} finally {
+			deflater.reset();
+			deflaters.add(deflater);
+		}
+	}
+
+	static String base64(byte[] bytes, int length) {
+		StringBuilder out = new StringBuilder((length + 2) / 3 * 4);
+		for (int ii = 0; ii < length; ii += 3) {
+			int bits = (bytes[ii] & 0xff) << 16;
+			if (ii + 1 < length)
+				bits |= (bytes[ii + 1] & 0xff) << 8;
+			if (ii + 2 < length)
+				bits |= bytes[ii + 2] & 0xff;
+			out.append(BASE64[(bits >> 18) & 0x3f]);
+			out.append(BASE64[(bits >> 12) & 0x3f]);
+			out.append(ii + 1 < length ? BASE64[(bits >> 6) & 0x3f] : '=');
+			out.append(ii + 2 < length ? BASE64[bits & 0x3f] : '=');
+		}
+		return out.toString();
+	}
+
+}
@@ -0,0 +1,204 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+import edu.scripps.fl.pubchem.promiscuity.model.CompoundPromiscuityInfo;
+import edu.scripps.fl.pubchem.promiscuity.model.PCPromiscuityParameters;
+import edu.scripps.fl.pubchem.promiscuity.model.PromiscuityCount;
+import edu.scripps.fl.pubchem.promiscuity.model.Protein;
+
+/**
+ * Writes the results as XML, streaming one Result element per compound
+ * rather than building the whole document in memory. The root element only
+ * gets its format attribute if a compound is not on hold, so it is written
+ * with the first such compound; the results before it are held until then.
+ * At most {@link #MAX_HELD} results are held; after that the root is written
+ * with its format attribute anyway, even if every compound turns out to be on
+ * hold.
+ */
+public class XMLResultWriter implements PromiscuityResultWriter {
+
+	public static final int MAX_HELD = 1000;
+
+	private final File file;
+	private PCPromiscuityParameters params;
+	private OutputStream out;
+	private IndentingXMLWriter writer;
+	private boolean rootWritten = false;
+	private final List<CompoundResult> held = new ArrayList<CompoundResult>();
+
+	public XMLResultWriter(File file) {
+		this.file = file;
+	}
+
+	public void start(PCPromiscuityParameters params) throws Exception {
+		this.params = params;
+		out = new BufferedOutputStream(new FileOutputStream(file));
+		writer = new IndentingXMLWriter(out);
+	}
+
+	public void write(CompoundResult result) throws Exception {
+		if (!rootWritten) {
+			CompoundPromiscuityInfo cpInfo = result.getInfo();
+			if ((cpInfo == null || cpInfo.getOnHold()) && held.size() < MAX_HELD) {
+				held.add(result);
+				return;
+			}
+			writeRoot(params.getPerProteinMode() ? "protein" : "compound");
+		}
+		writeResult(result);
+	}
+
+	private void writeRoot(String format) throws Exception {
+		writer.startElement("PubChemPromiscuityResults", format != null ? "format" : null, format);
+		rootWritten = true;
+		for (CompoundResult result : held)
+			writeResult(result);
+		held.clear();
+	}
+
+	private void writeResult(CompoundResult result) throws Exception {
+		Long id = result.getId();
+		CompoundPromiscuityInfo cpInfo = result.getInfo();
+		String db = params.getDatabase();
+		String idString = "SID";
+		if (db.equalsIgnoreCase("pccompound"))
+			idString = "CID";
+		writer.startElement("Result");
+		writer.textElement(idString, id.toString());
+
+		if (cpInfo == null)
+			writer.textElement("NoResults", "Error Processing this compound.");
+		else {
+			if (cpInfo.getOnHold())
+				writer.textElement("OnHold", "True");
+			else {
+				if (db.equalsIgnoreCase("pcsubstance"))
+					writer.textElement("CID", cpInfo.getCID() != null ? cpInfo.getCID().toString() : null);
+
+				writer.startElement("Descriptors");
+				for (String category : PCPromiscuityOutput.functionalGroupCategories) {
+					List<String> groups = result.getFunctionalGroups(category);
+					writer.textElement(category, groups != null ? StringUtils.join(groups, ", ") : null);
+				}
+				writer.textElement("PossibleFalseAromaticityDetection", cpInfo.isPossibleFalseAromaticityDetection() ? "true" : null);
+
+				for (int ii = 0; ii < PCPromiscuityOutput.descriptorNames.length; ii++)
+					writer.textElement(StringUtils.remove(PCPromiscuityOutput.descriptorNames[ii], " "), result.getDescriptor(ii));
+				writer.endElement();
+
+				writer.startElement("Proteins");
+				if (params.getPerProteinMode()) {
+					Map<Protein, Map<String, PromiscuityCount<?>>> proteinCounts = cpInfo.getPerProteinCounts();
+					for (Map.Entry<Protein, Map<String, PromiscuityCount<?>>> entry : proteinCounts.entrySet())
+						writeProtein(entry.getKey().getName(), entry.getValue(), id, db);
+					writeProtein("", cpInfo.getNoProteinCounts(), id, db);
+				} else
+					writeProtein("All Proteins", cpInfo.getCounts(), id, db);
+				writer.endElement();
+			}
+		}
+		writer.endElement();
+	}
+
+	public void flush() throws Exception {
+		writer.flush();
+	}
+
+	public void finish() throws Exception {
+		try {
+			if (writer != null) {
+				if (!rootWritten)
+					writeRoot(null);
+				writer.close();
+			}
+		} finally {
+			if (out != null)
+				out.close();
+		}
+	}
+
+	private void writeProtein(String name, Map<String, PromiscuityCount<?>> counts, Long id, String db) throws Exception {
+		writer.startElement("Protein");
+		writer.textElement("Name", name);
+		writer.startElement("PromiscuityCounts");
+		writeCounts(counts, id, db);
+		writer.endElement();
+		writer.endElement();
+	}
+
+	private void writeCounts(Map<String, PromiscuityCount<?>> counts, Long id, String db) throws Exception {
+		for (String cc : PCPromiscuityOutput.names) {
+			PromiscuityCount<?> count = counts.get(cc);
+			if (count != null) {
+				writer.startElement(cc);
+				writer.startElement("Total");
+				writer.textElement("Count", String.valueOf(count.getTotalCount()));
+				if (count.getTotalCount() > 0)
+					writeCountURL(count, count.getTotal(), id, db);
+				writer.endElement();
+
+				writer.startElement("Active");
+				writer.textElement("Count", String.valueOf(count.getActiveCount()));
+				if (count.getActiveCount() > 0)
+					writeCountURL(count, count.getActive(), id, db);
+				writer.endElement();
+				writer.endElement();
+			}
+		}
+	}
+
+	private void writeCountURL(PromiscuityCount<?> count, List<?> list, Long id, String db) throws Exception {
+		if (list.size() > 0) {
+			String urlS;
+			if (count.getName().equals(PCPromiscuityFactory.allProteinsName)) {
+				List<Long> proteins = new ArrayList<Long>();
+				for (Object protein : list) {
+					proteins.add(((Protein) protein).getGi());
+				}
+				// urlS = "http://www.ncbi.nlm.nih.gov/protein/" +
+				// StringUtils.join(proteins, ",");
+				urlS = "http://pubchem.ncbi.nlm.nih.gov/assay/assaytool.cgi?q=tgt&gi=%s&%sid=%s";
+				if (db.equalsIgnoreCase("pcsubstance"))
+					urlS = String.format(urlS, StringUtils.join(proteins, ","), "s", id);
+				else
+					urlS = String.format(urlS, StringUtils.join(proteins, ","), "c", id);
+			} else if (count.getName().contains("Project")) {
+				urlS = "http://www.ncbi.nlm.nih.gov/sites/entrez?db=pcassay&term=" + StringUtils.join(list, ",");
+			} else {
+				urlS = "http://pubchem.ncbi.nlm.nih.gov/assay/assay.cgi?p=datatable&q=sidsr&qfile=&service=&similarity=&cmpdv=%s&AIDlist=%s&%sIDlist=%s";
+				if (db.equalsIgnoreCase("pcsubstance"))
+					urlS = String.format(urlS, "sub", StringUtils.join(list, ","), "S", id);
+				else
+					urlS = String.format(urlS, "cmpd", StringUtils.join(list, ","), "C", id);
+			}
+			// Compress URL using deflator and base64 encoding. URL will be decompress on the client side.
+			urlS = URLCompressor.compress(urlS);
+			writer.textElement("URL", urlS);
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity.model;
+
+import java.util.List;
+
+/**
+ * A count of AIDs (assays or summaries) kept as {@link LongSet}s. The boxed
+ * lists returned by getActive and getTotal are built on each call and are
+ * meant for output only.
+ */
+public class AIDPromiscuityCount extends PromiscuityCount<Long> {
+
+	private LongSet activeSet = LongSet.EMPTY;
+	private LongSet totalSet = LongSet.EMPTY;
+
+	public AIDPromiscuityCount(String name, LongSet active, LongSet total) {
+		super(name);
+		setActiveSet(active);
+		setTotalSet(total);
+	}
+
+	@Override
+	public List<Long> getActive() {
+		return activeSet.toList();
+	}
+
+	@Override
+	public void setActive(List<Long> active) {
+		setActiveSet(LongSet.of(active));
+	}
+
+	@Override
+	public List<Long> getTotal() {
+		return totalSet.toList();
+	}
+
+	@Override
+	public void setTotal(List<Long> total) {
+		setTotalSet(LongSet.of(total));
+	}
+
+	@Override
+	public int getActiveCount() {
+		return activeSet.size();
+	}
+
+	@Override
+	public int getTotalCount() {
+		return totalSet.size();
+	}
+
+	public LongSet getActiveSet() {
+		return activeSet;
+	}
+
+	public void setActiveSet(LongSet activeSet) {
+		this.activeSet = activeSet == null ? LongSet.EMPTY : activeSet;
+	}
+
+	public LongSet getTotalSet() {
+		return totalSet;
+	}
+
+	public void setTotalSet(LongSet totalSet) {
+		this.totalSet = totalSet == null ? LongSet.EMPTY : totalSet;
+	}
+}
@@ -0,0 +1,155 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity.model;
+
+import java.util.Arrays;
+
+/**
+ * The ESummary descriptors of a compound. Numeric descriptors are parsed once
+ * while the ESummary is read into one array of doubles (NaN when PubChem did
+ * not report them) for computing, and keep the text PubChem reported for
+ * output.
+ */
+public class CompoundDescriptors {
+
+	public static final String RULE_OF_FIVE_VIOLATIONS = "Rule Of 5 Violations";
+
+	/**
+	 * The descriptor names in output order: the ESummary tags, then the rule
+	 * of five violations computed from them.
+	 */
+	public static final String[] NAMES = { "MinAC", "MaxAC", "MinTC", "MaxTC", "CanonicalSmiles", "MolecularWeight", "XLogP",
+			"HydrogenBondDonorCount", "HydrogenBondAcceptorCount", "TPSA", "Complexity", "RotatableBondCount", "MolecularFormula",
+			"TotalFormalCharge", "HeavyAtomCount", "AtomChiralCount", "AtomChiralDefCount", "AtomChiralUndefCount", "BondChiralCount",
+			"BondChiralDefCount", "BondChiralUndefCount", "IsotopeAtomCount", "CovalentUnitCount", "TautomerCount",
+			RULE_OF_FIVE_VIOLATIONS };
+
+	public static final int CANONICAL_SMILES = 4, MOLECULAR_WEIGHT = 5, XLOGP = 6, HBOND_DONOR_COUNT = 7, HBOND_ACCEPTOR_COUNT = 8,
+			MOLECULAR_FORMULA = 12;
+
+	private final double[] values = new double[NAMES.length];
+	private final String[] texts = new String[NAMES.length];
+	private String canonicalSmiles;
+	private String molecularFormula;
+	private int ruleOfFiveViolations = 0;
+
+	public CompoundDescriptors() {
+		Arrays.fill(values, Double.NaN);
+	}
+
+	/**
+	 * The index of a descriptor in {@link #NAMES}, or -1.
+	 */
+	public static int indexOf(String name) {
+		for (int ii = 0; ii < NAMES.length; ii++) {
+			if (NAMES[ii].equals(name))
+				return ii;
+		}
+		return -1;
+	}
+
+	/**
+	 * Whether the descriptor at index is kept as text rather than a number.
+	 */
+	public static boolean isText(int index) {
+		return index == CANONICAL_SMILES || index == MOLECULAR_FORMULA;
+	}
+
+	public double getValue(int index) {
+		return values[index];
+	}
+
+	/**
+	 * Sets a numeric descriptor to the value parsed from text, which is what
+	 * the output shows.
+	 */
+	public void setValue(int index, String text, double value) {
+		texts[index] = text;
+		values[index] = value;
+	}
+
+	public String getCanonicalSmiles() {
+		return canonicalSmiles;
+	}
+
+	public void setCanonicalSmiles(String canonicalSmiles) {
+		this.canonicalSmiles = canonicalSmiles;
+	}
+
+	public String getMolecularFormula() {
+		return molecularFormula;
+	}
+
+	public void setMolecularFormula(String molecularFormula) {
+		this.molecularFormula = molecularFormula;
+	}
+
+	public double getMolecularWeight() {
+		return values[MOLECULAR_WEIGHT];
+	}
+
+	public double getXLogP() {
+		return values[XLOGP];
+	}
+
+	public double getHBondDonorCount() {
+		return values[HBOND_DONOR_COUNT];
+	}
+
+	public double getHBondAcceptorCount() {
+		return values[HBOND_ACCEPTOR_COUNT];
+	}
+
+	public int getRuleOfFiveViolations() {
+		return ruleOfFiveViolations;
+	}
+
+	/**
+	 * Counts the Lipinski rule of five violations (molecular weight over 500,
+	 * more than 5 hydrogen bond donors or 10 acceptors, XLogP over 5).
+	 * Descriptors PubChem did not report are not counted.
+	 */
+	public int computeRuleOfFiveViolations() {
+		int violations = 0;
+		if (getMolecularWeight() > 500)
+			violations++;
+		if (getHBondDonorCount() > 5)
+			violations++;
+		if (getHBondAcceptorCount() > 10)
+			violations++;
+		if (getXLogP() > 5)
+			violations++;
+		ruleOfFiveViolations = violations;
+		return violations;
+	}
+
+	/**
+	 * The descriptor as PubChem reported it, or null if it was not reported.
+	 */
+	public String format(String name) {
+		if (RULE_OF_FIVE_VIOLATIONS.equals(name))
+			return String.valueOf(ruleOfFiveViolations);
+		int index = indexOf(name);
+		if (index == CANONICAL_SMILES)
+			return canonicalSmiles;
+		if (index == MOLECULAR_FORMULA)
+			return molecularFormula;
+		if (index < 0)
+			return null;
+		return texts[index];
+	}
+
+}
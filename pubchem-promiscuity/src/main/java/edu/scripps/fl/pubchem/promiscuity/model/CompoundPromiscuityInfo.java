@@ -27,7 +27,7 @@ public class CompoundPromiscuityInfo {
 	private String database;
 	private Boolean onHold = false;
 	private boolean possibleFalseAromaticityDetection = false;
-	private Map<String, Object> descriptors = new HashMap<String, Object>();
+	private CompoundDescriptors descriptors = new CompoundDescriptors();
 	private Map<String, CategorizedFunctionalGroups> categorizedFunctionalGroupsMap = new HashMap<String, CategorizedFunctionalGroups>();
 	private Map<String, PromiscuityCount<?>> counts = new HashMap<String, PromiscuityCount<?>>();
 	private Map<Protein, Map<String, PromiscuityCount<?>>> perProteinCounts = new HashMap<Protein, Map<String, PromiscuityCount<?>>>();
@@ -41,7 +41,7 @@ public class CompoundPromiscuityInfo {
 		return database;
 	}
 
-	public Map<String, Object> getDescriptors() {
+	public CompoundDescriptors getDescriptors() {
 		return descriptors;
 	}
 
@@ -65,7 +65,7 @@ public class CompoundPromiscuityInfo {
 		this.database = database;
 	}
 
-	public void setDescriptors(Map<String, Object> descriptors) {
+	public void setDescriptors(CompoundDescriptors descriptors) {
 		this.descriptors = descriptors;
 	}
 
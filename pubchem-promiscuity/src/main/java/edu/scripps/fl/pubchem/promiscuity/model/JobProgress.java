@@ -0,0 +1,147 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity.model;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * How far a job has got through each of its stages, in ids. Updated by the
+ * threads of the job and read by whoever polls its status, so every count is
+ * kept in an atomic array.
+ * 
+ * Also how a job is stopped: once it is cancelled or past its deadline the
+ * job's threads throw a {@link CancellationException} at their next
+ * {@link #checkCancelled()}, which they call between compounds and between
+ * Entrez requests.
+ */
+public class JobProgress {
+
+	public enum Stage {
+		LINKS("Linking compounds to assays"), SUMMARIES("Fetching compound summaries"), FUNCTIONAL_GROUPS(
+				"Matching functional groups"), COUNTING("Counting assays"), OUTPUT("Writing results");
+
+		private final String label;
+
+		private Stage(String label) {
+			this.label = label;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	private final AtomicIntegerArray done = new AtomicIntegerArray(Stage.values().length);
+	private volatile int total = 0;
+	private volatile boolean cancelled = false;
+	// 0 for no deadline
+	private volatile long deadline = 0;
+
+	/**
+	 * Sets the number of ids every stage has to get through.
+	 */
+	public void setTotal(int total) {
+		this.total = total;
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	public void add(Stage stage, int count) {
+		done.addAndGet(stage.ordinal(), count);
+	}
+
+	public void increment(Stage stage) {
+		done.incrementAndGet(stage.ordinal());
+	}
+
+	public int getDone(Stage stage) {
+		return done.get(stage.ordinal());
+	}
+
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Sets the time (in ms since the epoch) after which the job counts as
+	 * cancelled, 0 for none.
+	 */
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	public long getDeadline() {
+		return deadline;
+	}
+
+	public boolean isPastDeadline() {
+		return deadline > 0 && System.currentTimeMillis() > deadline;
+	}
+
+	/**
+	 * Whether {@link #cancel()} was called, as opposed to the deadline having
+	 * passed.
+	 */
+	public boolean isCancelRequested() {
+		return cancelled;
+	}
+
+	public boolean isCancelled() {
+		return cancelled || isPastDeadline();
+	}
+
+	/**
+	 * @throws CancellationException
+	 *             if the job is cancelled or past its deadline
+	 */
+	public void checkCancelled() throws CancellationException {
+		if (cancelled)
+			throw new CancellationException("Job cancelled");
+		if (isPastDeadline())
+			throw new CancellationException("Job exceeded its time limit");
+	}
+
+	/**
+	 * The first stage that has not got through every id, or null once all of
+	 * them have.
+	 */
+	public Stage getCurrentStage() {
+		for (Stage stage : Stage.values()) {
+			if (getDone(stage) < total)
+				return stage;
+		}
+		return null;
+	}
+
+	/**
+	 * The stages as a JSON array of objects with the stage name, label, done
+	 * and total counts.
+	 */
+	public String toJSON() {
+		StringBuilder json = new StringBuilder("[");
+		for (Stage stage : Stage.values()) {
+			if (stage.ordinal() > 0)
+				json.append(",");
+			json.append(String.format("{\"name\":\"%s\",\"label\":\"%s\",\"done\":%s,\"total\":%s}", stage.name().toLowerCase(), stage
+					.getLabel(), getDone(stage), total));
+		}
+		return json.append("]").toString();
+	}
+
+}
@@ -0,0 +1,170 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An immutable set of ids kept as a sorted array of unique primitive longs.
+ * Intersections and differences are single merges over the two arrays, or
+ * binary searches of the larger one when the other is much smaller, so no
+ * boxing or hashing is needed for the per compound set algebra. Boxed lists
+ * are only built with {@link #toList()} for output.
+ */
+public final class LongSet {
+
+	public static final LongSet EMPTY = new LongSet(new long[0]);
+
+	private final long[] values;
+
+	private LongSet(long[] values) {
+		this.values = values;
+	}
+
+	public static LongSet of(Collection<Long> ids) {
+		if (ids == null || ids.size() == 0)
+			return EMPTY;
+		long[] values = new long[ids.size()];
+		int size = 0;
+		for (Long id : ids) {
+			if (id != null)
+				values[size++] = id;
+		}
+		return sorted(values, size);
+	}
+
+	public static LongSet of(long... ids) {
+		return sorted(ids.clone(), ids.length);
+	}
+
+	private static LongSet sorted(long[] values, int length) {
+		Arrays.sort(values, 0, length);
+		int size = 0;
+		for (int ii = 0; ii < length; ii++) {
+			if (size == 0 || values[ii] != values[size - 1])
+				values[size++] = values[ii];
+		}
+		return size == 0 ? EMPTY : new LongSet(trim(values, size));
+	}
+
+	private static long[] trim(long[] values, int size) {
+		if (size == values.length)
+			return values;
+		long[] trimmed = new long[size];
+		System.arraycopy(values, 0, trimmed, 0, size);
+		return trimmed;
+	}
+
+	public int size() {
+		return values.length;
+	}
+
+	public long get(int index) {
+		return values[index];
+	}
+
+	public boolean contains(long id) {
+		return Arrays.binarySearch(values, id) >= 0;
+	}
+
+	public LongSet intersect(LongSet other) {
+		if (values.length == 0 || other.values.length == 0)
+			return EMPTY;
+		if (values.length > other.values.length)
+			return other.intersect(this);
+		long[] result = new long[values.length];
+		int size = 0;
+		if (values.length * 16 < other.values.length) {
+			for (long id : values) {
+				if (other.contains(id))
+					result[size++] = id;
+			}
+		} else {
+			int ii = 0, jj = 0;
+			while (ii < values.length && jj < other.values.length) {
+				if (values[ii] < other.values[jj])
+					ii++;
+				else if (values[ii] > other.values[jj])
+					jj++;
+				else {
+					result[size++] = values[ii];
+					ii++;
+					jj++;
+				}
+			}
+		}
+		return size == 0 ? EMPTY : new LongSet(trim(result, size));
+	}
+
+	public LongSet subtract(LongSet other) {
+		if (values.length == 0 || other.values.length == 0)
+			return this;
+		long[] result = new long[values.length];
+		int size = 0, jj = 0;
+		for (long id : values) {
+			while (jj < other.values.length && other.values[jj] < id)
+				jj++;
+			if (jj == other.values.length || other.values[jj] != id)
+				result[size++] = id;
+		}
+		return size == values.length ? this : new LongSet(trim(result, size));
+	}
+
+	public boolean containsAny(LongSet other) {
+		if (values.length > other.values.length)
+			return other.containsAny(this);
+		int ii = 0, jj = 0;
+		while (ii < values.length && jj < other.values.length) {
+			if (values[ii] < other.values[jj])
+				ii++;
+			else if (values[ii] > other.values[jj])
+				jj++;
+			else
+				return true;
+		}
+		return false;
+	}
+
+	public List<Long> toList() {
+		List<Long> list = new ArrayList<Long>(values.length);
+		for (long id : values)
+			list.add(id);
+		return list;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof LongSet))
+			return false;
+		return Arrays.equals(values, ((LongSet) obj).values);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(values);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(values);
+	}
+
+}
@@ -15,12 +15,10 @@
  */
 package edu.scripps.fl.pubchem.promiscuity.model;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import edu.scripps.fl.pubchem.web.ELinkResult;
 
@@ -31,7 +29,7 @@ public class OverallListsAndMaps {
 	 * tested in. allSummaries is the set of all the Summary AIDs that the set
 	 * of all the AIDs are related to.
 	 */
-	private Set<Long> allAIDs = new HashSet<Long>(), allSummaries = new HashSet<Long>();
+	private LongSet allAIDs = LongSet.EMPTY, allSummaries = LongSet.EMPTY;
 	/*
 	 * aidProteinMap is a map of all AIDs to their target proteins.
 	 * summaryProteinMap is of all Summaries to their target proteins.
@@ -42,47 +40,75 @@ public class OverallListsAndMaps {
 	 * mlpSummaries is a sublist of allSummaries where the source category for
 	 * the Summary assay is NIH Molecular Libraries Program
 	 */
-	private List<Long> mlpSummaries = new ArrayList<Long>(), allProteinAIDs = new ArrayList<Long>(),
-			allNoProteinAIDs = new ArrayList<Long>();
-	private Map<Long, List<Long>> summaryToAIDsMap = new HashMap<Long, List<Long>>();
-	private Map<String, List<Long>> advancedCountTotalAIDMap = new HashMap<String, List<Long>>();
-	private Map<Long, List<ELinkResult>> compoundToAIDsMap = new HashMap<Long, List<ELinkResult>>();
+	private LongSet mlpSummaries = LongSet.EMPTY, allProteinAIDs = LongSet.EMPTY, allNoProteinAIDs = LongSet.EMPTY;
+	private Map<Long, LongSet> summaryToAIDsMap = new HashMap<Long, LongSet>();
+	/*
+	 * aidToSummariesMap is the inverse of summaryToAIDsMap: each AID to the
+	 * summaries it is related to.
+	 */
+	private Map<Long, LongSet> aidToSummariesMap = new HashMap<Long, LongSet>();
+	private Map<String, LongSet> advancedCountTotalAIDMap = new HashMap<String, LongSet>();
+	/*
+	 * compoundToAIDsMap is a map of each compound to its AIDs, keyed by ELink
+	 * link name (<db>_pcassay and <db>_pcassay_active).
+	 */
+	private Map<Long, Map<String, List<Long>>> compoundToAIDsMap = new HashMap<Long, Map<String, List<Long>>>();
 	private Map<Long, List<ELinkResult>> SIDToCIDMap = new HashMap<Long, List<ELinkResult>>();
-	private Set<Protein> allProteins = new HashSet<Protein>();
-	private Map<Protein, List<Long>> proteinAIDMap = new HashMap<Protein, List<Long>>();
+	private volatile boolean frozen = false;
+
+	/**
+	 * Makes the lists and maps read only once they are set up, so the
+	 * compounds can be counted against them from several threads. Every
+	 * setter throws an IllegalStateException afterwards.
+	 */
+	public void freeze() {
+		aidProteinMap = Collections.unmodifiableMap(aidProteinMap);
+		summaryProteinMap = Collections.unmodifiableMap(summaryProteinMap);
+		summaryToAIDsMap = Collections.unmodifiableMap(summaryToAIDsMap);
+		aidToSummariesMap = Collections.unmodifiableMap(aidToSummariesMap);
+		advancedCountTotalAIDMap = Collections.unmodifiableMap(advancedCountTotalAIDMap);
+		compoundToAIDsMap = Collections.unmodifiableMap(compoundToAIDsMap);
+		SIDToCIDMap = Collections.unmodifiableMap(SIDToCIDMap);
+		frozen = true;
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
 
-	public Map<String, List<Long>> getAdvancedCountTotalAIDMap() {
+	private void checkNotFrozen() {
+		if (frozen)
+			throw new IllegalStateException("Overall lists and maps are read only once frozen");
+	}
+
+	public Map<String, LongSet> getAdvancedCountTotalAIDMap() {
 		return advancedCountTotalAIDMap;
 	}
 
+	public Map<Long, LongSet> getAidToSummariesMap() {
+		return aidToSummariesMap;
+	}
+
 	public Map<Long, List<Protein>> getAidProteinMap() {
 		return aidProteinMap;
 	}
 
-	public Set<Long> getAllAIDs() {
+	public LongSet getAllAIDs() {
 		return allAIDs;
 	}
 
-	public Set<Protein> getAllProteins() {
-		return allProteins;
-	}
-
-	public Set<Long> getAllSummaries() {
+	public LongSet getAllSummaries() {
 		return allSummaries;
 	}
 
-	public Map<Long, List<ELinkResult>> getCompoundToAIDsMap() {
+	public Map<Long, Map<String, List<Long>>> getCompoundToAIDsMap() {
 		return compoundToAIDsMap;
 	}
 
-	public List<Long> getMlpSummaries() {
+	public LongSet getMlpSummaries() {
 		return mlpSummaries;
 	}
 
-	public Map<Protein, List<Long>> getProteinAIDMap() {
-		return proteinAIDMap;
-	}
-
 	public Map<Long, List<ELinkResult>> getSIDToCIDMap() {
 		return SIDToCIDMap;
 	}
@@ -91,67 +117,75 @@ public class OverallListsAndMaps {
 		return summaryProteinMap;
 	}
 
-	public Map<Long, List<Long>> getSummaryToAIDsMap() {
+	public Map<Long, LongSet> getSummaryToAIDsMap() {
 		return summaryToAIDsMap;
 	}
 
-	public void setAdvancedCountTotalAIDMap(Map<String, List<Long>> advancedCountTotalAIDMap) {
+	public void setAdvancedCountTotalAIDMap(Map<String, LongSet> advancedCountTotalAIDMap) {
+		checkNotFrozen();
 		this.advancedCountTotalAIDMap = advancedCountTotalAIDMap;
 	}
 
+	public void setAidToSummariesMap(Map<Long, LongSet> aidToSummariesMap) {
+		checkNotFrozen();
+		this.aidToSummariesMap = aidToSummariesMap;
+	}
+
 	public void setAidProteinMap(Map<Long, List<Protein>> aidProteinMap) {
+		checkNotFrozen();
 		this.aidProteinMap = aidProteinMap;
 	}
 
-	public void setAllAIDs(Set<Long> allAIDs) {
+	public void setAllAIDs(LongSet allAIDs) {
+		checkNotFrozen();
 		this.allAIDs = allAIDs;
 	}
 
-	public void setAllProteins(Set<Protein> allProteins) {
-		this.allProteins = allProteins;
-	}
-
-	public void setAllSummaries(Set<Long> allSummaries) {
+	public void setAllSummaries(LongSet allSummaries) {
+		checkNotFrozen();
 		this.allSummaries = allSummaries;
 	}
 
-	public void setCompoundToAIDsMap(Map<Long, List<ELinkResult>> compoundToAIDsMap) {
+	public void setCompoundToAIDsMap(Map<Long, Map<String, List<Long>>> compoundToAIDsMap) {
+		checkNotFrozen();
 		this.compoundToAIDsMap = compoundToAIDsMap;
 	}
 
-	public void setMlpSummaries(List<Long> mlpSummaries) {
+	public void setMlpSummaries(LongSet mlpSummaries) {
+		checkNotFrozen();
 		this.mlpSummaries = mlpSummaries;
 	}
 
-	public void setProteinAIDMap(Map<Protein, List<Long>> proteinAIDMap) {
-		this.proteinAIDMap = proteinAIDMap;
-	}
-
 	public void setSIDToCIDMap(Map<Long, List<ELinkResult>> sIDToCIDMap) {
+		checkNotFrozen();
 		SIDToCIDMap = sIDToCIDMap;
 	}
 
 	public void setSummaryProteinMap(Map<Long, List<Protein>> summaryProteinMap) {
+		checkNotFrozen();
 		this.summaryProteinMap = summaryProteinMap;
 	}
 
-	public void setSummaryToAIDsMap(Map<Long, List<Long>> summaryToAIDsMap) {
+	public void setSummaryToAIDsMap(Map<Long, LongSet> summaryToAIDsMap) {
+		checkNotFrozen();
 		this.summaryToAIDsMap = summaryToAIDsMap;
 	}
 
-	public void setAllProteinAIDs(List<Long> allProteinAIDs) {
+	public void setAllProteinAIDs(LongSet allProteinAIDs) {
+		checkNotFrozen();
 		this.allProteinAIDs = allProteinAIDs;
 	}
 
-	public List<Long> getAllProteinAIDs() {
+	public LongSet getAllProteinAIDs() {
 		return allProteinAIDs;
 	}
 
-	public void setAllNoProteinAIDs(List<Long> allNoProteinAIDs) {
+	public void setAllNoProteinAIDs(LongSet allNoProteinAIDs) {
+		checkNotFrozen();
 		this.allNoProteinAIDs = allNoProteinAIDs;
 	}
 
-	public List<Long> getAllNoProteinAIDs() {
+	public LongSet getAllNoProteinAIDs() {
 		return allNoProteinAIDs;
 	}
 
@@ -23,6 +23,12 @@ public class PCPromiscuityParameters {
 	private Boolean simpleMode;
 	private Boolean perProteinMode;
 	private List<Long> ids;
+	private Integer esearchChunkSize = 1000;
+	// threads matching functional groups and counting compounds
+	private Integer countingThreads = Runtime.getRuntime().availableProcessors();
+	// ids per chunk in streaming mode, 0 to process all ids at once
+	private Integer streamingChunkSize = 0;
+	private JobProgress progress = new JobProgress();
 
 	public String getDatabase() {
 		return database;
@@ -56,4 +62,39 @@ public class PCPromiscuityParameters {
 		return ids;
 	}
 
+	public Integer getEsearchChunkSize() {
+		return esearchChunkSize;
+	}
+
+	public void setEsearchChunkSize(Integer esearchChunkSize) {
+		this.esearchChunkSize = esearchChunkSize;
+	}
+
+	public Integer getCountingThreads() {
+		return countingThreads;
+	}
+
+	public void setCountingThreads(Integer countingThreads) {
+		this.countingThreads = countingThreads;
+	}
+
+	public Integer getStreamingChunkSize() {
+		return streamingChunkSize;
+	}
+
+	public void setStreamingChunkSize(Integer streamingChunkSize) {
+		this.streamingChunkSize = streamingChunkSize;
+	}
+
+	/**
+	 * Where the job running with these parameters reports how far it has got.
+	 */
+	public JobProgress getProgress() {
+		return progress;
+	}
+
+	public void setProgress(JobProgress progress) {
+		this.progress = progress;
+	}
+
 }
@@ -30,6 +30,10 @@ public class PromiscuityCount<E> {
 		setTotal(total);
 	}
 
+	protected PromiscuityCount(String name) {
+		setName(name);
+	}
+
 	public List<E> getActive() {
 		return active;
 	}
@@ -46,6 +50,14 @@ public class PromiscuityCount<E> {
 		this.total = total;
 	}
 
+	public int getActiveCount() {
+		return active == null ? 0 : active.size();
+	}
+
+	public int getTotalCount() {
+		return total == null ? 0 : total.size();
+	}
+
 	public String getName() {
 		return name;
 	}
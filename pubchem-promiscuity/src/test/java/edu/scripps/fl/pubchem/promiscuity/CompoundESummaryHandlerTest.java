@@ -0,0 +1,77 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import junit.framework.TestCase;
+import edu.scripps.fl.pubchem.promiscuity.model.CompoundPromiscuityInfo;
+
+/**
+ * Checks that compounds are put on hold by their HoldUntilDate, which PubChem
+ * may give with a time after the date, and that DocumentSummary matches in any
+ * case.
+ */
+public class CompoundESummaryHandlerTest extends TestCase {
+
+	public void testHoldUntilDate() throws Exception {
+		Map<Long, CompoundPromiscuityInfo> compounds = parse(summary(1, "2099/01/01") + summary(2, "2099/01/01 00:00")
+				+ summary(3, "2000/01/01 00:00") + summary(4, "") + summary(5, "not a date"));
+		assertTrue(compounds.get(1L).getOnHold());
+		assertTrue(compounds.get(2L).getOnHold());
+		assertFalse(compounds.get(3L).getOnHold());
+		assertFalse(compounds.get(4L).getOnHold());
+		assertFalse(compounds.get(5L).getOnHold());
+	}
+
+	public void testDocumentSummaryInAnyCase() throws Exception {
+		Map<Long, CompoundPromiscuityInfo> compounds = parse("<DOCUMENTSUMMARY uid=\"6\"><CanonicalSmiles>CCN</CanonicalSmiles>"
+				+ "</DOCUMENTSUMMARY>");
+		assertEquals("CCN", compounds.get(6L).getDescriptors().getCanonicalSmiles());
+	}
+
+	public void testParseDate() {
+		assertEquals(20990102, parseDate("2099/01/02"));
+		assertEquals(20990102, parseDate(" 2099/01/02 13:45 "));
+		assertEquals(20990102, parseDate("2099/1/2"));
+		assertEquals(-1, parseDate("2099/13/02"));
+		assertEquals(-1, parseDate("2099/01"));
+		assertEquals(-1, parseDate("2099-01-02"));
+		assertEquals(-1, parseDate(""));
+	}
+
+	private static String summary(long uid, String holdUntilDate) {
+		return "<DocumentSummary uid=\"" + uid + "\"><CanonicalSmiles>CCO</CanonicalSmiles><HoldUntilDate>" + holdUntilDate
+				+ "</HoldUntilDate></DocumentSummary>";
+	}
+
+	private static Map<Long, CompoundPromiscuityInfo> parse(String summaries) throws Exception {
+		String xml = "<eSummaryResult><DocumentSummarySet>" + summaries + "</DocumentSummarySet></eSummaryResult>";
+		CompoundESummaryHandler handler = new CompoundESummaryHandler();
+		SAXParserFactory.newInstance().newSAXParser().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")), handler);
+		return handler.getCompoundIdMap();
+	}
+
+	private static int parseDate(String text) {
+		TextBuffer buffer = new TextBuffer();
+		buffer.append(text.toCharArray(), 0, text.length());
+		return buffer.parseDate();
+	}
+
+}
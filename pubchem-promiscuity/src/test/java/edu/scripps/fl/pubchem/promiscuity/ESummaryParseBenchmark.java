@@ -0,0 +1,145 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.commons.io.IOUtils;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Measures the parse throughput of the ESummary SAX handlers.
+ * 
+ * Usage: ESummaryParseBenchmark compound|assay [esummary.xml]
+ * 
+ * Without a file a synthetic document shaped like an Entrez ESummary response
+ * (20000 compounds or 20000 assays) is generated, so a recorded response can be
+ * used when one is at hand and the benchmark still runs without one.
+ */
+public class ESummaryParseBenchmark {
+
+	private static final int DOCUMENTS = 20000, WARMUP = 3, ITERATIONS = 10;
+
+	public static void main(String[] args) throws Exception {
+		boolean compound = args.length == 0 || args[0].equalsIgnoreCase("compound");
+		byte[] document;
+		if (args.length > 1)
+			document = readFile(new File(args[1]));
+		else
+			document = (compound ? compoundDocument(DOCUMENTS) : assayDocument(DOCUMENTS)).getBytes("UTF-8");
+		System.out.println(String.format("%s ESummary document: %.1f MB", compound ? "Compound" : "Assay",
+				document.length / 1024.0 / 1024.0));
+
+		SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
+		for (int ii = 0; ii < WARMUP; ii++)
+			parse(parser, document, compound);
+		long start = System.nanoTime();
+		int parsed = 0;
+		for (int ii = 0; ii < ITERATIONS; ii++)
+			parsed = parse(parser, document, compound);
+		double seconds = (System.nanoTime() - start) / 1e9 / ITERATIONS;
+		System.out.println(String.format("%s summaries per parse, %.1f ms per parse, %.1f MB/s", parsed, seconds * 1000,
+				document.length / 1024.0 / 1024.0 / seconds));
+	}
+
+	private static int parse(SAXParser parser, byte[] document, boolean compound) throws Exception {
+		DefaultHandler handler = compound ? new CompoundESummaryHandler() : new AssayESummaryHandler();
+		parser.reset();
+		parser.parse(new ByteArrayInputStream(document), handler);
+		if (compound)
+			return ((CompoundESummaryHandler) handler).getCompoundIdMap().size();
+		return ((AssayESummaryHandler) handler).getMap().size();
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return IOUtils.toByteArray(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static String compoundDocument(int compounds) {
+		Random random = new Random(1);
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<eSummaryResult>\n<DocumentSummarySet status=\"OK\">\n");
+		for (int ii = 0; ii < compounds; ii++) {
+			sb.append("<DocumentSummary uid=\"").append(1000 + ii).append("\">\n");
+			sb.append("\t<CID>").append(1000 + ii).append("</CID>\n");
+			sb.append("\t<SourceNameList>\n\t\t<string>MLSMR</string>\n\t\t<string>ChEMBL</string>\n\t</SourceNameList>\n");
+			sb.append("\t<MeSHHeadingList></MeSHHeadingList>\n");
+			sb.append("\t<MinAC>").append(random.nextInt(50)).append("</MinAC>\n");
+			sb.append("\t<MaxAC>").append(random.nextInt(500)).append("</MaxAC>\n");
+			sb.append("\t<MinTC>").append(random.nextInt(50)).append("</MinTC>\n");
+			sb.append("\t<MaxTC>").append(random.nextInt(900)).append("</MaxTC>\n");
+			sb.append("\t<CanonicalSmiles>CC1=CC(=O)N(N1C)C2=CC=CC=C2").append(ii % 7 == 0 ? "Cl" : "").append("</CanonicalSmiles>\n");
+			sb.append("\t<MolecularWeight>").append(150 + random.nextInt(500)).append('.').append(random.nextInt(1000))
+					.append("</MolecularWeight>\n");
+			sb.append("\t<XLogP>").append(random.nextInt(8) - 2).append('.').append(random.nextInt(10)).append("</XLogP>\n");
+			sb.append("\t<HydrogenBondDonorCount>").append(random.nextInt(6)).append("</HydrogenBondDonorCount>\n");
+			sb.append("\t<HydrogenBondAcceptorCount>").append(random.nextInt(12)).append("</HydrogenBondAcceptorCount>\n");
+			sb.append("\t<TPSA>").append(random.nextInt(140)).append('.').append(random.nextInt(10)).append("</TPSA>\n");
+			sb.append("\t<Complexity>").append(random.nextInt(800)).append("</Complexity>\n");
+			sb.append("\t<RotatableBondCount>").append(random.nextInt(10)).append("</RotatableBondCount>\n");
+			sb.append("\t<MolecularFormula>C11H12N2O</MolecularFormula>\n");
+			sb.append("\t<TotalFormalCharge>0</TotalFormalCharge>\n");
+			sb.append("\t<HeavyAtomCount>").append(10 + random.nextInt(30)).append("</HeavyAtomCount>\n");
+			for (String name : new String[] { "AtomChiralCount", "AtomChiralDefCount", "AtomChiralUndefCount", "BondChiralCount",
+					"BondChiralDefCount", "BondChiralUndefCount", "IsotopeAtomCount" })
+				sb.append("\t<").append(name).append(">0</").append(name).append(">\n");
+			sb.append("\t<CovalentUnitCount>1</CovalentUnitCount>\n");
+			sb.append("\t<TautomerCount>").append(random.nextInt(5)).append("</TautomerCount>\n");
+			if (ii % 100 == 0)
+				sb.append("\t<HoldUntilDate>2099/01/01</HoldUntilDate>\n");
+			sb.append("</DocumentSummary>\n");
+		}
+		sb.append("</DocumentSummarySet>\n</eSummaryResult>\n");
+		return sb.toString();
+	}
+
+	private static String assayDocument(int assays) {
+		Random random = new Random(1);
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<eSummaryResult>\n<DocumentSummarySet status=\"OK\">\n");
+		for (int ii = 0; ii < assays; ii++) {
+			sb.append("<DocumentSummary uid=\"").append(1 + ii).append("\">\n");
+			sb.append("\t<AID>").append(1 + ii).append("</AID>\n");
+			sb.append("\t<SourceNameList>\n\t\t<string>NCGC</string>\n\t</SourceNameList>\n");
+			sb.append("\t<Name>qHTS Assay for Inhibitors of Target ").append(ii).append("</Name>\n");
+			sb.append("\t<Description>Synthetic assay description used to size the document like a real one.</Description>\n");
+			sb.append("\t<ProteinTargetList>\n");
+			for (int jj = random.nextInt(3); jj > 0; jj--) {
+				sb.append("\t\t<ProteinTarget>\n\t\t\t<Name>protein ").append(random.nextInt(5000)).append("</Name>\n");
+				sb.append("\t\t\t<GI>").append(100000 + random.nextInt(900000)).append("</GI>\n\t\t</ProteinTarget>\n");
+			}
+			sb.append("\t</ProteinTargetList>\n");
+			sb.append("\t<ActivityOutcomeMethod>Confirmatory</ActivityOutcomeMethod>\n");
+			sb.append("</DocumentSummary>\n");
+		}
+		sb.append("</DocumentSummarySet>\n</eSummaryResult>\n");
+		return sb.toString();
+	}
+
+}
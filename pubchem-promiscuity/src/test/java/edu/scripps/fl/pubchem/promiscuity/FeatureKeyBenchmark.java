@@ -0,0 +1,118 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import joelib2.molecule.Molecule;
+import edu.scripps.fl.pubchem.promiscuity.model.CategorizedFunctionalGroups;
+import edu.scripps.fl.pubchem.promiscuity.model.CompoundPromiscuityInfo;
+import edu.scripps.fl.pubchem.promiscuity.model.FunctionalGroup;
+
+/**
+ * Measures how many functional group matches the feature key screen skips,
+ * and what matching costs with and without it.
+ * 
+ * Usage: FeatureKeyBenchmark [file]
+ * 
+ * The file (a test resource, 1000_MLSMR.txt by default) holds one CID or one
+ * SMILES per line. CIDs are looked up in PubChem for their canonical SMILES.
+ * Screened out pairs that the full match would have found are counted too, so
+ * the screen can be checked to never lose a match.
+ */
+public class FeatureKeyBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		List<String> smiles = readSmiles(args.length > 0 ? args[0] : "1000_MLSMR.txt");
+		FunctionalGroupRegistry registry = new FunctionalGroupRegistry(new FunctionalGroupDetectionFactory().GetFunctionalGroups());
+		List<FunctionalGroup> groups = new ArrayList<FunctionalGroup>();
+		for (CategorizedFunctionalGroups catGroup : registry.getCategorizedGroups())
+			groups.addAll(catGroup.getFunctionalGroups());
+		System.out.println(String.format("%s compounds, %s functional groups", smiles.size(), groups.size()));
+
+		long start = System.nanoTime();
+		long[] keys = new long[smiles.size()];
+		for (int ii = 0; ii < keys.length; ii++)
+			keys[ii] = FeatureKey.forSmiles(smiles.get(ii));
+		System.out.println(String.format("Compound feature keys: %.1f ms", (System.nanoTime() - start) / 1e6));
+
+		long pairs = 0, skipped = 0, matched = 0, lost = 0, screenedTime = 0, fullTime = 0;
+		FunctionalGroupRegistry.PatternSet patterns = registry.borrowPatterns();
+		for (int ii = 0; ii < keys.length; ii++) {
+			Molecule target = registry.getTarget(smiles.get(ii));
+			if (target == null)
+				continue;
+			for (FunctionalGroup group : groups) {
+				pairs++;
+				long time = System.nanoTime();
+				boolean mayMatch = registry.mayMatch(group, keys[ii]);
+				boolean screenedMatch = mayMatch && patterns.matches(group, target);
+				screenedTime += System.nanoTime() - time;
+				time = System.nanoTime();
+				boolean match = patterns.matches(group, target);
+				fullTime += System.nanoTime() - time;
+				if (!mayMatch)
+					skipped++;
+				if (match)
+					matched++;
+				if (match && !screenedMatch)
+					lost++;
+			}
+		}
+		registry.returnPatterns(patterns);
+		System.out.println(String.format("%s of %s pairs skipped (%.1f%%), %s matches, %s lost by the screen", skipped, pairs,
+				pairs == 0 ? 0 : 100.0 * skipped / pairs, matched, lost));
+		System.out.println(String.format("Matching with screen: %.1f ms, without: %.1f ms", screenedTime / 1e6, fullTime / 1e6));
+	}
+
+	private static List<String> readSmiles(String file) throws Exception {
+		InputStream stream = FeatureKeyBenchmark.class.getClassLoader().getResourceAsStream(file);
+		if (stream == null)
+			throw new IllegalArgumentException("No such test resource: " + file);
+		List<String> lines = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(stream));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0)
+					lines.add(line.split("\\s+")[0]);
+			}
+		} finally {
+			in.close();
+		}
+		List<Long> cids = new ArrayList<Long>();
+		for (String line : lines) {
+			if (!line.matches("\\d+"))
+				return lines;
+			cids.add(Long.parseLong(line));
+		}
+		List<String> smiles = new ArrayList<String>();
+		Map<Long, CompoundPromiscuityInfo> compounds = new PCPromiscuityFactory().getCompoundsWithDescriptors(cids, "pccompound");
+		for (CompoundPromiscuityInfo compound : compounds.values()) {
+			String smile = compound.getDescriptors().getCanonicalSmiles();
+			if (smile != null)
+				smiles.add(smile);
+		}
+		return smiles;
+	}
+
+}
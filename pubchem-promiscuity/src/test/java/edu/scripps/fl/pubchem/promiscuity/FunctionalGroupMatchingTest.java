@@ -0,0 +1,100 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import edu.scripps.fl.match.JoeLibMatcher;
+import edu.scripps.fl.match.SMARTSMatcher;
+import edu.scripps.fl.pubchem.promiscuity.model.CategorizedFunctionalGroups;
+import edu.scripps.fl.pubchem.promiscuity.model.CompoundDescriptors;
+import edu.scripps.fl.pubchem.promiscuity.model.CompoundPromiscuityInfo;
+import edu.scripps.fl.pubchem.promiscuity.model.FunctionalGroup;
+
+/**
+ * Checks that matching the registry's compiled patterns against a molecule
+ * parsed once assigns the same functional groups and aromaticity flag as
+ * matching every SMARTS through JoeLibMatcher did.
+ */
+public class FunctionalGroupMatchingTest extends TestCase {
+
+	private static final String[] smiles = {
+			"C1=CC=CC=C1",
+			"c1ccccc1O",
+			"CC(=O)OC1=CC=CC=C1C(=O)O",
+			"c1ccncc1",
+			"c1ccsc1",
+			"CC(=O)NC1=CC=C(O)C=C1",
+			"[O-][N+](=O)c1ccc(Cl)cc1",
+			"CCN(CC)CCOC(=O)C1=CC=C(N)C=C1",
+			"O=C1NC(=O)C(N1)(C2=CC=CC=C2)C3=CC=CC=C3",
+			"CCCCCCCC=O" };
+
+	public void testSameGroupsAsJoeLibMatcher() throws Exception {
+		FunctionalGroupCache cache = FunctionalGroupCache.getInstance();
+		FunctionalGroupCache.setInstance(null);
+		try {
+			FunctionalGroupRegistry registry = FunctionalGroupRegistry.getInstance();
+			FunctionalGroupDetectionFactory factory = new FunctionalGroupDetectionFactory();
+			for (int ii = 0; ii < smiles.length; ii++) {
+				CompoundPromiscuityInfo compound = compound(ii, smiles[ii]);
+				factory.calculateFunctionalGroups(compound, registry);
+
+				SMARTSMatcher matcher = new JoeLibMatcher();
+				matcher.setTarget(smiles[ii]);
+				for (CategorizedFunctionalGroups catGroup : registry.getCategorizedGroups()) {
+					Set<String> expected = new HashSet<String>();
+					for (FunctionalGroup group : catGroup.getFunctionalGroups()) {
+						if (matcher.matches(group.getSMARTS()))
+							expected.add(group.getName());
+					}
+					assertEquals(smiles[ii] + " " + catGroup.getCategory(), expected,
+							names(compound.getCategorizedFunctionalGroupsMap().get(catGroup.getCategory())));
+				}
+				assertEquals(smiles[ii], matcher.checkAromaticityDetection(), compound.isPossibleFalseAromaticityDetection());
+			}
+		} finally {
+			FunctionalGroupCache.setInstance(cache);
+		}
+	}
+
+	public void testAromaticAtoms() {
+		assertEquals(0, FunctionalGroupRegistry.aromaticAtoms("C1=CC=CC=C1"));
+		assertEquals(6, FunctionalGroupRegistry.aromaticAtoms("c1ccccc1Cl"));
+		assertEquals(5, FunctionalGroupRegistry.aromaticAtoms("c1cc[nH]c1"));
+		assertEquals(6, FunctionalGroupRegistry.aromaticAtoms("[13cH]1ccccc1Br"));
+	}
+
+	private static CompoundPromiscuityInfo compound(long id, String smiles) {
+		CompoundDescriptors descriptors = new CompoundDescriptors();
+		descriptors.setCanonicalSmiles(smiles);
+		CompoundPromiscuityInfo compound = new CompoundPromiscuityInfo();
+		compound.setId(id);
+		compound.setOnHold(false);
+		compound.setDescriptors(descriptors);
+		return compound;
+	}
+
+	private static Set<String> names(CategorizedFunctionalGroups catGroup) {
+		Set<String> names = new HashSet<String>();
+		for (FunctionalGroup group : catGroup.getFunctionalGroups())
+			names.add(group.getName());
+		return names;
+	}
+
+}
@@ -0,0 +1,98 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import edu.scripps.fl.pubchem.promiscuity.model.LongSet;
+
+/**
+ * Checks the LongSet set algebra, including both ways intersect can go: the
+ * merge of two similar sized sets and the binary search of a much larger one.
+ */
+public class LongSetTest extends TestCase {
+
+	public void testOfSortsAndRemovesDuplicates() {
+		assertEquals(LongSet.of(1, 2, 5), LongSet.of(5, 1, 2, 5, 1));
+		assertEquals(LongSet.of(3, 4), LongSet.of(Arrays.asList(4L, null, 3L, 4L)));
+		assertSame(LongSet.EMPTY, LongSet.of(new ArrayList<Long>()));
+		assertSame(LongSet.EMPTY, LongSet.of((List<Long>) null));
+	}
+
+	public void testIntersectMerge() {
+		LongSet first = LongSet.of(1, 3, 5, 7, 9);
+		LongSet second = LongSet.of(2, 3, 4, 7, 10);
+		assertEquals(LongSet.of(3, 7), first.intersect(second));
+		assertEquals(LongSet.of(3, 7), second.intersect(first));
+		assertSame(LongSet.EMPTY, first.intersect(LongSet.of(2, 4, 6)));
+		assertSame(LongSet.EMPTY, first.intersect(LongSet.EMPTY));
+	}
+
+	public void testIntersectBinarySearch() {
+		// more than 16 times larger, so the small set is searched for in it
+		LongSet small = LongSet.of(5, 500, 1001, 2000);
+		LongSet large = range(0, 1000, 5);
+		assertEquals(LongSet.of(5, 500), small.intersect(large));
+		assertEquals(LongSet.of(5, 500), large.intersect(small));
+		assertSame(LongSet.EMPTY, LongSet.of(1, 2, 3).intersect(large));
+	}
+
+	public void testIntersectPathsAgree() {
+		LongSet large = range(0, 10000, 3);
+		for (int size = 1; size < 1000; size *= 3) {
+			LongSet other = range(0, size * 2, 2);
+			assertEquals(naiveIntersect(other, large), other.intersect(large));
+		}
+	}
+
+	public void testSubtract() {
+		LongSet set = LongSet.of(1, 2, 3, 4, 5);
+		assertEquals(LongSet.of(1, 3, 5), set.subtract(LongSet.of(0, 2, 4, 6)));
+		assertEquals(0, set.subtract(set).size());
+		assertSame(set, set.subtract(LongSet.of(7, 8)));
+		assertSame(set, set.subtract(LongSet.EMPTY));
+		assertSame(LongSet.EMPTY, LongSet.EMPTY.subtract(set));
+	}
+
+	public void testContainsAny() {
+		LongSet set = LongSet.of(10, 20, 30);
+		assertTrue(set.containsAny(LongSet.of(5, 30)));
+		assertTrue(LongSet.of(5, 30).containsAny(set));
+		assertFalse(set.containsAny(LongSet.of(5, 15, 25, 35)));
+		assertFalse(set.containsAny(LongSet.EMPTY));
+		assertFalse(LongSet.EMPTY.containsAny(set));
+	}
+
+	private static LongSet range(long from, long to, long step) {
+		List<Long> ids = new ArrayList<Long>();
+		for (long id = from; id < to; id += step)
+			ids.add(id);
+		return LongSet.of(ids);
+	}
+
+	private static LongSet naiveIntersect(LongSet first, LongSet second) {
+		List<Long> ids = new ArrayList<Long>();
+		for (int ii = 0; ii < first.size(); ii++) {
+			if (second.contains(first.get(ii)))
+				ids.add(first.get(ii));
+		}
+		return LongSet.of(ids);
+	}
+
+}
@@ -0,0 +1,119 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import edu.scripps.fl.pubchem.promiscuity.model.JobProgress;
+
+/**
+ * Checks that TaskGraph nodes run after their dependencies and all at once
+ * otherwise, and that a failure or a cancelled job stops the nodes depending
+ * on it.
+ */
+public class TaskGraphTest extends TestCase {
+
+	private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+
+	public void testDependenciesRunFirst() throws Exception {
+		TaskGraph graph = new TaskGraph();
+		TaskGraph.Node<Integer> first = graph.add("first", task("first", 1, 50));
+		TaskGraph.Node<Integer> second = graph.add("second", task("second", 2, 0), first);
+		TaskGraph.Node<Integer> third = graph.add("third", task("third", 3, 20), first);
+		TaskGraph.Node<Integer> last = graph.add("last", task("last", 4, 0), second, third);
+		graph.await();
+		assertEquals("first", ran.get(0));
+		assertEquals("last", ran.get(3));
+		assertEquals(4, last.get().intValue());
+		assertTrue(second.getStartTime() >= first.getEndTime());
+		assertTrue(last.getStartTime() >= third.getEndTime());
+	}
+
+	public void testIndependentNodesRunAtOnce() throws Exception {
+		// each node waits for the other, so they only finish if both run
+		final CyclicBarrier barrier = new CyclicBarrier(2);
+		Callable<Integer> task = new Callable<Integer>() {
+			public Integer call() throws Exception {
+				return barrier.await(5, TimeUnit.SECONDS);
+			}
+		};
+		TaskGraph graph = new TaskGraph();
+		graph.add("one", task);
+		graph.add("two", task);
+		graph.await();
+	}
+
+	public void testFailurePropagates() throws Exception {
+		TaskGraph graph = new TaskGraph();
+		TaskGraph.Node<Integer> failing = graph.add("failing", new Callable<Integer>() {
+			public Integer call() throws Exception {
+				throw new IOException("no connection");
+			}
+		});
+		TaskGraph.Node<Integer> dependent = graph.add("dependent", task("dependent", 1, 0), failing);
+		try {
+			graph.await();
+			fail("await should rethrow the failure");
+		} catch (IOException ex) {
+			assertEquals("no connection", ex.getMessage());
+		}
+		// the rest of the graph is cancelled, so the dependent never runs
+		try {
+			dependent.get();
+			fail("the dependent node should not complete");
+		} catch (CancellationException ex) {
+		} catch (IOException ex) {
+			assertEquals("no connection", ex.getMessage());
+		}
+		assertTrue(ran.isEmpty());
+	}
+
+	public void testCancelledJobStartsNoNodes() throws Exception {
+		JobProgress progress = new JobProgress();
+		progress.cancel();
+		TaskGraph graph = new TaskGraph(progress);
+		graph.add("first", task("first", 1, 0));
+		try {
+			graph.await();
+			fail("await should throw once the job is cancelled");
+		} catch (CancellationException ex) {
+		}
+		assertTrue(ran.isEmpty());
+	}
+
+	public void testEmptyGraph() throws Exception {
+		new TaskGraph().await();
+	}
+
+	private Callable<Integer> task(final String name, final int result, final long sleep) {
+		return new Callable<Integer>() {
+			public Integer call() throws Exception {
+				Thread.sleep(sleep);
+				ran.add(name);
+				return result;
+			}
+		};
+	}
+
+}
@@ -31,6 +31,7 @@ import org.apache.log4j.xml.DOMConfigurator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.scripps.fl.pubchem.promiscuity.model.CompoundDescriptors;
 import edu.scripps.fl.pubchem.promiscuity.model.CompoundPromiscuityInfo;
 import edu.scripps.fl.pubchem.promiscuity.model.PCPromiscuityParameters;
 import edu.scripps.fl.pubchem.promiscuity.model.PromiscuityCount;
@@ -111,10 +112,10 @@ public class TestPCPromiscuity {
 	public void printCompoundInfo(CompoundPromiscuityInfo compound) {
 		System.out.print(compound.getId());
 		System.out.print(" On Hold: " + compound.getOnHold());
-		Map<String, Object> props = compound.getDescriptors();
+		CompoundDescriptors props = compound.getDescriptors();
 		if (props != null) {
-			for (String key : props.keySet()) {
-				System.out.print(" " + key + " : " + props.get(key));
+			for (String key : PCPromiscuityOutput.descriptorNames) {
+				System.out.print(" " + key + " : " + props.format(key));
 			}
 		}
 		System.out.println();
@@ -184,7 +185,7 @@ public class TestPCPromiscuity {
 		for (String countName : names) {
 			PromiscuityCount<?> count = counts.get(countName);
 			if (count != null) {
-				System.out.println(String.format("\t\t%s\t%s%s%s", countName, count.getActive().size(), "/", count.getTotal().size()));
+				System.out.println(String.format("\t\t%s\t%s%s%s", countName, count.getActiveCount(), "/", count.getTotalCount()));
 			}
 		}
 	}
@@ -0,0 +1,95 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import edu.scripps.fl.rhinoproject.JSProcessor;
+
+/**
+ * Compares URL compression through the Rhino compress.txt script with
+ * {@link URLCompressor} on URLs shaped like the ones in the XML results.
+ * 
+ * Usage: URLCompressionBenchmark [urls]
+ */
+public class URLCompressionBenchmark {
+
+	private static final int WARMUP = 2, ITERATIONS = 5;
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		List<String> urls = urls(count);
+
+		JSProcessor jsp = new JSProcessor();
+		jsp.init();
+		jsp.setCodeSource(new InputStreamReader(URLCompressionBenchmark.class.getResourceAsStream("/compress.txt")));
+		try {
+			for (int ii = 0; ii < WARMUP; ii++)
+				rhino(jsp, urls);
+			long start = System.nanoTime();
+			for (int ii = 0; ii < ITERATIONS; ii++)
+				rhino(jsp, urls);
+			report("Rhino", start, urls.size());
+		} finally {
+			jsp.exit();
+		}
+
+		for (int ii = 0; ii < WARMUP; ii++)
+			compressor(urls);
+		long start = System.nanoTime();
+		for (int ii = 0; ii < ITERATIONS; ii++)
+			compressor(urls);
+		report("URLCompressor", start, urls.size());
+	}
+
+	private static void report(String name, long start, int urls) {
+		double seconds = (System.nanoTime() - start) / 1e9 / ITERATIONS;
+		System.out.println(String.format("%s: %.1f ms for %s urls, %.1f us per url", name, seconds * 1000, urls, seconds * 1e6 / urls));
+	}
+
+	private static int rhino(JSProcessor jsp, List<String> urls) throws Exception {
+		int length = 0;
+		for (String url : urls)
+			length += jsp.deflate(url).length();
+		return length;
+	}
+
+	private static int compressor(List<String> urls) {
+		int length = 0;
+		for (String url : urls)
+			length += URLCompressor.compress(url).length();
+		return length;
+	}
+
+	// assay data table URLs with 1 to 200 AIDs, as made per count category
+	private static List<String> urls(int count) {
+		Random random = new Random(1);
+		List<String> urls = new ArrayList<String>(count);
+		for (int ii = 0; ii < count; ii++) {
+			StringBuilder aids = new StringBuilder();
+			int aidCount = 1 + random.nextInt(200);
+			for (int jj = 0; jj < aidCount; jj++)
+				aids.append(jj > 0 ? "," : "").append(1 + random.nextInt(600000));
+			urls.add("http://pubchem.ncbi.nlm.nih.gov/assay/assay.cgi?p=datatable&q=sidsr&qfile=&service=&similarity=&cmpdv=cmpd&AIDlist="
+					+ aids + "&CIDlist=" + (1 + random.nextInt(50000000)));
+		}
+		return urls;
+	}
+
+}
@@ -0,0 +1,121 @@
+/*					
+ * Copyright 2011 The Scripps Research Institute					
+ *					
+ * Licensed under the Apache License, Version 2.0 (the "License");					
+ * you may not use this file except in compliance with the License.					
+ * You may obtain a copy of the License at					
+ *					
+ *     http://www.apache.org/licenses/LICENSE-2.0					
+ *					
+ * Unless required by applicable law or agreed to in writing, software					
+ * distributed under the License is distributed on an "AS IS" BASIS,					
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.					
+ * See the License for the specific language governing permissions and					
+ * limitations under the License.					
+ */
+package edu.scripps.fl.pubchem.promiscuity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.util.zip.Inflater;
+
+import junit.framework.TestCase;
+import edu.scripps.fl.rhinoproject.JSProcessor;
+
+/**
+ * Checks that compressed URLs decode the way the client side inflate in
+ * javascript/utils.js does it (Base64 decode, then raw inflate), and that the
+ * Rhino compressor they replace produces the same format.
+ */
+public class URLCompressorTest extends TestCase {
+
+	private static final String[] urls = {
+			"",
+			"http://www.ncbi.nlm.nih.gov/sites/entrez?db=pcassay&term=1,2",
+			"http://pubchem.ncbi.nlm.nih.gov/assay/assaytool.cgi?q=tgt&gi=4506291,4557705&cid=2244",
+			"http://pubchem.ncbi.nlm.nih.gov/assay/assay.cgi?p=datatable&q=sidsr&qfile=&service=&similarity=&cmpdv=cmpd&AIDlist="
+					+ aids(5000) + "&CIDlist=2244" };
+
+	private static String aids(int count) {
+		StringBuilder aids = new StringBuilder();
+		for (int ii = 1; ii <= count; ii++)
+			aids.append(ii > 1 ? "," : "").append(ii * 7 + 1000);
+		return aids.toString();
+	}
+
+	public void testRoundTrip() throws Exception {
+		for (String url : urls)
+			assertEquals(url, inflate(URLCompressor.compress(url)));
+	}
+
+	public void testRepeatedCallsReuseDeflaters() throws Exception {
+		String first = URLCompressor.compress(urls[2]);
+		for (int ii = 0; ii < 100; ii++)
+			assertEquals(first, URLCompressor.compress(urls[2]));
+	}
+
+	public void testBase64Padding() {
+		assertEquals("", URLCompressor.base64(new byte[0], 0));
+		assertEquals("YQ==", URLCompressor.base64("a".getBytes(), 1));
+		assertEquals("YWI=", URLCompressor.base64("ab".getBytes(), 2));
+		assertEquals("YWJj", URLCompressor.base64("abc".getBytes(), 3));
+		assertEquals("+/8=", URLCompressor.base64(new byte[] { (byte) 0xfb, (byte) 0xff }, 2));
+	}
+
+	public void testSameFormatAsRhino() throws Exception {
+		JSProcessor jsp = new JSProcessor();
+		jsp.init();
+		jsp.setCodeSource(new InputStreamReader(getClass().getResourceAsStream("/compress.txt")));
+		try {
+			for (String url : urls) {
+				assertEquals(url, inflate(jsp.deflate(url)));
+				assertEquals(inflate(jsp.deflate(url)), inflate(URLCompressor.compress(url)));
+			}
+		} finally {
+			jsp.exit();
+		}
+	}
+
+	/**
+	 * What the client does: Base64 decode, then inflate without a zlib
+	 * header, one character per byte.
+	 */
+	static String inflate(String compressed) throws Exception {
+		byte[] bytes = base64Decode(compressed);
+		// a raw inflater needs an extra byte after the input
+		byte[] input = new byte[bytes.length + 1];
+		System.arraycopy(bytes, 0, input, 0, bytes.length);
+		Inflater inflater = new Inflater(true);
+		inflater.setInput(input);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		while (!inflater.finished()) {
+			int length = inflater.inflate(buffer);
+			if (length == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+				fail("Truncated deflate stream: " + compressed);
+			out.write(buffer, 0, length);
+		}
+		inflater.end();
+		return new String(out.toByteArray(), "ISO-8859-1");
+	}
+
+	private static byte[] base64Decode(String str) {
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int bits = 0, count = 0;
+		for (char cc : str.toCharArray()) {
+			if (cc == '=')
+				break;
+			int value = alphabet.indexOf(cc);
+			assertTrue("Not a Base64 character: " + cc, value >= 0);
+			bits = (bits << 6) | value;
+			count += 6;
+			if (count >= 8) {
+				count -= 8;
+				out.write((bits >> count) & 0xff);
+			}
+		}
+		return out.toByteArray();
+	}
+
+}